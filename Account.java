@@ -1,10 +1,10 @@
 class Account {
     private String accountNumber;
     private int userId;
-    private double balance;
+    private Money balance;
     private String hashedPin;
 
-    public Account(String accountNumber, int userId, double balance, String hashedPin) {
+    public Account(String accountNumber, int userId, Money balance, String hashedPin) {
         this.accountNumber = accountNumber;
         this.userId = userId;
         this.balance = balance;
@@ -19,7 +19,7 @@ class Account {
         return userId;
     }
 
-    public double getBalance() {
+    public Money getBalance() {
         return balance;
     }
 
@@ -27,7 +27,7 @@ class Account {
         return hashedPin;
     }
 
-    public void setBalance(double balance) {
+    public void setBalance(Money balance) {
         this.balance = balance;
     }
 
@@ -0,0 +1,148 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// Bounded in-process cache of account lookups, keyed by account number.
+// Entries expire after a TTL and the least recently used entry is evicted
+// once the cache is full. Missing accounts are cached too, so repeated
+// lookups of a bad account number don't hit the database.
+//
+// Writers invalidate rather than update entries, and every invalidate bumps
+// the account's generation. A reader takes the generation before its SELECT
+// and passes it to put or putMissing, which refuse to store the row if a
+// write has happened since: it may predate that write. Generations are kept per stripe of accounts,
+// so a write to one account can also refuse a put for a neighbour, which
+// only costs a later reload.
+class AccountCache {
+    private static final int GENERATION_STRIPES = 1024;
+
+    private final int maxSize;
+    private final long ttlMillis;
+    private final Map<String, Entry> entries;
+    private final long[] generations = new long[GENERATION_STRIPES];
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    // Reads refused because a write happened while they were in flight
+    private long stalePuts;
+
+    public AccountCache(int maxSize, long ttlMillis) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Cache size must be greater than zero.");
+        }
+
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > AccountCache.this.maxSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    // Returns the cached entry, or null on a miss or an expired entry
+    synchronized Entry get(String accountNumber) {
+        Entry entry = entries.get(accountNumber);
+        if (entry != null && System.currentTimeMillis() - entry.loadedAt <= ttlMillis) {
+            hits.increment();
+            return entry;
+        }
+
+        if (entry != null) {
+            entries.remove(accountNumber);
+        }
+        misses.increment();
+        return null;
+    }
+
+    // Take before reading the row that will be passed to put or putMissing
+    synchronized long generation(String accountNumber) {
+        return generations[stripe(accountNumber)];
+    }
+
+    // Returns the entry; it is only stored if no write has happened since
+    // `generation` was taken
+    synchronized Entry put(String accountNumber, String owner, Money balance, long generation) {
+        return store(accountNumber, new Entry(true, owner, balance, System.currentTimeMillis()), generation);
+    }
+
+    synchronized Entry putMissing(String accountNumber, long generation) {
+        return store(accountNumber, new Entry(false, null, Money.ZERO, System.currentTimeMillis()), generation);
+    }
+
+    synchronized void invalidate(String accountNumber) {
+        generations[stripe(accountNumber)]++;
+        entries.remove(accountNumber);
+    }
+
+    public synchronized long getStalePutCount() {
+        return stalePuts;
+    }
+
+    synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public double getHitRate() {
+        long hitCount = getHits();
+        long total = hitCount + getMisses();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    @Override
+    public String toString() {
+        return "AccountCache [size=" + size() + ", max=" + maxSize + ", hits=" + getHits() + ", misses=" + getMisses()
+                + ", evictions=" + getEvictions() + ", stalePuts=" + getStalePutCount() + ", hitRate=" + String.format("%.3f", getHitRate()) + "]";
+    }
+
+    private Entry store(String accountNumber, Entry entry, long generation) {
+        if (generations[stripe(accountNumber)] != generation) {
+            stalePuts++;
+            return entry;
+        }
+        entries.put(accountNumber, entry);
+        return entry;
+    }
+
+    private static int stripe(String accountNumber) {
+        return Math.floorMod(accountNumber.hashCode(), GENERATION_STRIPES);
+    }
+
+    static final class Entry {
+        final boolean exists;
+        final String owner;
+        final Money balance;
+        final long loadedAt;
+
+        Entry(boolean exists, String owner, Money balance, long loadedAt) {
+            this.exists = exists;
+            this.owner = owner;
+            this.balance = balance;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
@@ -0,0 +1,9 @@
+import java.sql.SQLException;
+
+class AccountNotFoundException extends SQLException {
+    private static final long serialVersionUID = 1L;
+
+    public AccountNotFoundException(String accountNumber) {
+        super("Account not found: " + accountNumber);
+    }
+}
@@ -0,0 +1,130 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.BitSet;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Hands out free 5-digit account numbers from an in-memory bitmap of used
+// numbers. The bitmap is loaded with one query on first use; after that a
+// number is found without touching the database. The primary key on
+// accounts.account_number stays the source of truth: if another process
+// took the number first, the insert fails and we simply try the next one.
+class AccountNumberAllocator {
+    static final int FIRST_ACCOUNT_NUMBER = 10000;
+    static final int ACCOUNT_NUMBER_RANGE = 90000;
+    private static final int MAX_INSERT_ATTEMPTS = 10;
+
+    private final ConnectionPool connectionPool;
+    private final BitSet used = new BitSet(ACCOUNT_NUMBER_RANGE);
+    private boolean loaded;
+
+    // Inserts the account row under the given number; returns true on success
+    interface AccountInsert {
+        boolean insert(Connection connection, String accountNumber) throws SQLException;
+    }
+
+    public AccountNumberAllocator(ConnectionPool connectionPool) {
+        this.connectionPool = connectionPool;
+    }
+
+    // Picks a free number, runs the insert, and retries with another number
+    // if the primary key says it was already taken
+    public String insertWithNewNumber(Connection connection, AccountInsert accountInsert) throws SQLException {
+        for (int attempt = 0; attempt < MAX_INSERT_ATTEMPTS; attempt++) {
+            String accountNumber = allocate(connection);
+            boolean inserted = false;
+
+            try {
+                inserted = accountInsert.insert(connection, accountNumber);
+                return inserted ? accountNumber : null;
+            } catch (SQLIntegrityConstraintViolationException e) {
+                if (!isPrimaryKeyViolation(e)) {
+                    throw e;
+                }
+                // Someone else owns this number - keep it marked and try again
+                inserted = true;
+            } finally {
+                if (!inserted) {
+                    release(accountNumber);
+                }
+            }
+        }
+
+        throw new SQLException("Could not allocate a unique account number.");
+    }
+
+    public String allocate() throws SQLException {
+        try (Connection connection = connectionPool.getConnection()) {
+            return allocate(connection);
+        }
+    }
+
+    synchronized String allocate(Connection connection) throws SQLException {
+        ensureLoaded(connection);
+
+        // Start at a random point so numbers aren't handed out sequentially
+        int start = ThreadLocalRandom.current().nextInt(ACCOUNT_NUMBER_RANGE);
+        int free = used.nextClearBit(start);
+        if (free >= ACCOUNT_NUMBER_RANGE) {
+            free = used.nextClearBit(0);
+        }
+        if (free >= ACCOUNT_NUMBER_RANGE) {
+            throw new SQLException("No account numbers left.");
+        }
+
+        used.set(free);
+        return String.valueOf(FIRST_ACCOUNT_NUMBER + free);
+    }
+
+    // Returns a number whose insert did not go through
+    public synchronized void release(String accountNumber) {
+        int index = indexOf(accountNumber);
+        if (index >= 0) {
+            used.clear(index);
+        }
+    }
+
+    public int getFreeCount() throws SQLException {
+        try (Connection connection = connectionPool.getConnection()) {
+            synchronized (this) {
+                ensureLoaded(connection);
+                return ACCOUNT_NUMBER_RANGE - used.cardinality();
+            }
+        }
+    }
+
+    private void ensureLoaded(Connection connection) throws SQLException {
+        if (loaded) {
+            return;
+        }
+
+        String query = "SELECT account_number FROM accounts";
+        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+            ResultSet resultSet = stmt.executeQuery();
+            while (resultSet.next()) {
+                int index = indexOf(resultSet.getString(1));
+                if (index >= 0) {
+                    used.set(index);
+                }
+            }
+        }
+
+        loaded = true;
+    }
+
+    private static int indexOf(String accountNumber) {
+        try {
+            int index = Integer.parseInt(accountNumber) - FIRST_ACCOUNT_NUMBER;
+            return index >= 0 && index < ACCOUNT_NUMBER_RANGE ? index : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static boolean isPrimaryKeyViolation(SQLIntegrityConstraintViolationException e) {
+        String message = e.getMessage();
+        return message != null && message.contains("PRIMARY");
+    }
+}
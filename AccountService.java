@@ -1,147 +1,434 @@
 import java.sql.*;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.Random;
+import java.time.LocalDateTime;
 
 class AccountService {
-    private Connection connection;
+    // Balances are read as whole cents so they map straight onto Money
+    static final String BALANCE_CENTS = "CAST(balance * 100 AS SIGNED) AS balance_cents";
+    private static final long SESSION_TTL_MILLIS = 5 * 60 * 1000;
 
-    public AccountService(Connection connection) {
-        this.connection = connection;
+    private final ConnectionPool connectionPool;
+    private final AccountCache accountCache;
+    private final AccountNumberAllocator accountNumberAllocator;
+    private final BankMetrics metrics;
+    private final PinHasher pinHasher = PinHasher.fromSystemProperties();
+    private final SessionTokens sessions = new SessionTokens(SESSION_TTL_MILLIS);
+    private final BalanceSnapshots snapshots;
+    private final ReplicaRouter replicaRouter;
+
+    public AccountService(ConnectionPool connectionPool) {
+        this(connectionPool, null);
+    }
+
+    // Pass an AccountCache to serve accountExists/getBalance from memory
+    public AccountService(ConnectionPool connectionPool, AccountCache accountCache) {
+        this(connectionPool, accountCache, null);
+    }
+
+    // Pass a ReplicaRouter to run balance, existence and history reads on replicas
+    public AccountService(ConnectionPool connectionPool, AccountCache accountCache, ReplicaRouter replicaRouter) {
+        this.connectionPool = connectionPool;
+        this.accountCache = accountCache;
+        this.replicaRouter = replicaRouter;
+        this.accountNumberAllocator = new AccountNumberAllocator(connectionPool);
+        this.metrics = connectionPool.getMetrics();
+        this.snapshots = new BalanceSnapshots(connectionPool);
     }
 
     public int getAccountCountByUserId(int userId) throws SQLException {
-        String query = "SELECT COUNT(*) FROM accounts WHERE user_id = ?";
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
-            stmt.setInt(1, userId);
+        return metrics.time("AccountService.getAccountCountByUserId", () -> {
+            String query = "SELECT COUNT(*) FROM accounts WHERE user_id = ?";
+            try (Connection connection = connectionPool.getConnection();
+                 PreparedStatement stmt = connection.prepareStatement(query)) {
+                stmt.setInt(1, userId);
 
-            ResultSet resultSet = stmt.executeQuery();
-            if (resultSet.next()) {
-                return resultSet.getInt(1);
+                ResultSet resultSet = stmt.executeQuery();
+                if (resultSet.next()) {
+                    return resultSet.getInt(1);
+                }
             }
-        }
 
-        return 0;
+            return 0;
+        });
     }
 
     public String createAccount(int userId, String pin) throws SQLException {
-        // Generate a unique 5-digit account number
-        String accountNumber = generateUniqueAccountNumber();
+        return metrics.time("AccountService.createAccount", () -> {
+            try (Connection connection = connectionPool.getConnection()) {
+                return createAccount(connection, userId, pin);
+            }
+        });
+    }
 
+    String createAccount(Connection connection, int userId, String pin) throws SQLException {
         // Hash the PIN for security
-        String hashedPin = hashPin(pin);
+        String hashedPin = pinHasher.hash(pin);
 
-        // Insert new account
+        // Insert new account under a free 5-digit account number
         String insertQuery = "INSERT INTO accounts (account_number, user_id, balance, pin) VALUES (?, ?, 0.00, ?)";
-        try (PreparedStatement insertStmt = connection.prepareStatement(insertQuery)) {
-            insertStmt.setString(1, accountNumber);
-            insertStmt.setInt(2, userId);
-            insertStmt.setString(3, hashedPin);
+        return accountNumberAllocator.insertWithNewNumber(connection, (conn, accountNumber) -> {
+            try (PreparedStatement insertStmt = conn.prepareStatement(insertQuery)) {
+                insertStmt.setString(1, accountNumber);
+                insertStmt.setInt(2, userId);
+                insertStmt.setString(3, hashedPin);
 
-            int rowsAffected = insertStmt.executeUpdate();
-            if (rowsAffected > 0) {
-                return accountNumber;
+                int rowsAffected = insertStmt.executeUpdate();
+                if (rowsAffected > 0) {
+                    evictFromCache(accountNumber);
+                    return true;
+                }
             }
-        }
 
-        return null;
+            return false;
+        });
+    }
+
+    // Opens an account with a zero balance and returns its number. A phone or
+    // email that is already registered fails the UNIQUE constraint and surfaces
+    // as SQLIntegrityConstraintViolationException.
+    public String createAccount(String name, String phone, String email, String pin) throws SQLException {
+        return metrics.time("AccountService.createAccount", () -> {
+            try (Connection connection = connectionPool.getConnection()) {
+                return createAccount(connection, name, phone, email, pin);
+            }
+        });
+    }
+
+    String createAccount(Connection connection, String name, String phone, String email, String pin) throws SQLException {
+        // Hash the PIN for security
+        String hashedPin = pinHasher.hash(pin);
+
+        // Insert new account under a free 5-digit account number
+        String insertQuery = "INSERT INTO accounts (account_number, name, phone, email, pin, balance) VALUES (?, ?, ?, ?, ?, 0.00)";
+        return accountNumberAllocator.insertWithNewNumber(connection, (conn, accountNumber) -> {
+            try (PreparedStatement insertStmt = conn.prepareStatement(insertQuery)) {
+                insertStmt.setString(1, accountNumber);
+                insertStmt.setString(2, name);
+                insertStmt.setString(3, phone);
+                insertStmt.setString(4, email);
+                insertStmt.setString(5, hashedPin);
+
+                int rowsAffected = insertStmt.executeUpdate();
+                if (rowsAffected > 0) {
+                    evictFromCache(accountNumber);
+                    return true;
+                }
+            }
+
+            return false;
+        });
     }
 
     public boolean verifyPin(String accountNumber, String pin) throws SQLException {
+        return metrics.time("AccountService.verifyPin", () -> {
+            try (Connection connection = connectionPool.getConnection()) {
+                return verifyPin(connection, accountNumber, pin);
+            }
+        });
+    }
+
+    boolean verifyPin(Connection connection, String accountNumber, String pin) throws SQLException {
+        String storedHashedPin = readPinHash(connection, accountNumber);
+        if (!pinHasher.matches(pin, storedHashedPin)) {
+            return false;
+        }
+
+        upgradePinHash(connection, accountNumber, pin, storedHashedPin);
+        return true;
+    }
+
+    // The stored PIN hash, or null if there is no such account. A caller that
+    // checks several attempts fetches it once and tests each with matchesPin.
+    public String getPinHash(String accountNumber) throws SQLException {
+        return metrics.time("AccountService.getPinHash", () -> {
+            try (Connection connection = connectionPool.getConnection()) {
+                return readPinHash(connection, accountNumber);
+            }
+        });
+    }
+
+    // In-memory check against a hash from getPinHash, no database round trip
+    public boolean matchesPin(String pin, String storedHashedPin) {
+        return pinHasher.matches(pin, storedHashedPin);
+    }
+
+    public boolean needsPinRehash(String storedHashedPin) {
+        return pinHasher.needsRehash(storedHashedPin);
+    }
+
+    // Replaces an old unsalted hash once the PIN is known to be right
+    public void upgradePinHash(String accountNumber, String pin, String storedHashedPin) throws SQLException {
+        metrics.time("AccountService.upgradePinHash", () -> {
+            try (Connection connection = connectionPool.getConnection()) {
+                upgradePinHash(connection, accountNumber, pin, storedHashedPin);
+            }
+            return null;
+        });
+    }
+
+    private static String readPinHash(Connection connection, String accountNumber) throws SQLException {
         String query = "SELECT pin FROM accounts WHERE account_number = ?";
         try (PreparedStatement stmt = connection.prepareStatement(query)) {
             stmt.setString(1, accountNumber);
 
             ResultSet resultSet = stmt.executeQuery();
-            if (resultSet.next()) {
-                String storedHashedPin = resultSet.getString("pin");
-                String inputHashedPin = hashPin(pin);
+            return resultSet.next() ? resultSet.getString("pin") : null;
+        }
+    }
 
-                return storedHashedPin.equals(inputHashedPin);
-            }
+    private void upgradePinHash(Connection connection, String accountNumber, String pin, String storedHashedPin)
+            throws SQLException {
+        if (!pinHasher.needsRehash(storedHashedPin)) {
+            return;
         }
 
-        return false;
+        String updateQuery = "UPDATE accounts SET pin = ? WHERE account_number = ? AND pin = ?";
+        try (PreparedStatement stmt = connection.prepareStatement(updateQuery)) {
+            stmt.setString(1, pinHasher.hash(pin));
+            stmt.setString(2, accountNumber);
+            stmt.setString(3, storedHashedPin);
+            stmt.executeUpdate();
+        }
     }
 
-    public double getBalance(String accountNumber) throws SQLException {
-        String query = "SELECT balance FROM accounts WHERE account_number = ?";
+    // Checks the PIN once and returns a token that stands in for it on later
+    // steps of the same flow, or null if the PIN is wrong
+    public String openSession(String accountNumber, String pin) throws SQLException {
+        return verifyPin(accountNumber, pin) ? sessions.open(accountNumber) : null;
+    }
+
+    // In-memory check, no database round trip
+    public boolean verifySession(String accountNumber, String token) {
+        return sessions.isValid(token, accountNumber);
+    }
+
+    public void closeSession(String token) {
+        sessions.close(token);
+    }
+
+    public Money getBalance(String accountNumber) throws SQLException {
+        return metrics.time("AccountService.getBalance", () -> {
+            AccountCache.Entry entry = cachedAccount(accountNumber);
+            if (entry != null) {
+                if (!entry.exists) {
+                    throw new AccountNotFoundException(accountNumber);
+                }
+                return entry.balance;
+            }
+
+            try (Connection connection = readConnection(accountNumber)) {
+                return getBalance(connection, accountNumber);
+            }
+        });
+    }
+
+    // Name on the account, or null if there is no such account
+    public String getAccountHolder(String accountNumber) throws SQLException {
+        return metrics.time("AccountService.getAccountHolder", () -> {
+            AccountCache.Entry entry = cachedAccount(accountNumber);
+            if (entry != null && (!entry.exists || entry.owner != null)) {
+                return entry.owner;
+            }
+
+            String query = "SELECT name FROM accounts WHERE account_number = ?";
+            try (Connection connection = readConnection(accountNumber);
+                 PreparedStatement stmt = connection.prepareStatement(query)) {
+                stmt.setString(1, accountNumber);
+
+                ResultSet resultSet = stmt.executeQuery();
+                return resultSet.next() ? resultSet.getString("name") : null;
+            }
+        });
+    }
+
+    // Balance at a past time, from the end-of-day snapshots plus a short replay
+    public Money getBalanceAsOf(String accountNumber, LocalDateTime asOf) throws SQLException {
+        return metrics.time("AccountService.getBalanceAsOf", () -> {
+            Money balance = snapshots.getBalanceAsOf(accountNumber, asOf);
+            if (balance == null) {
+                throw new AccountNotFoundException(accountNumber);
+            }
+            return balance;
+        });
+    }
+
+    Money getBalance(Connection connection, String accountNumber) throws SQLException {
+        String query = "SELECT " + BALANCE_CENTS + " FROM accounts WHERE account_number = ?";
         try (PreparedStatement stmt = connection.prepareStatement(query)) {
             stmt.setString(1, accountNumber);
 
             ResultSet resultSet = stmt.executeQuery();
             if (resultSet.next()) {
-                return resultSet.getDouble("balance");
+                return Money.ofCents(resultSet.getLong("balance_cents"));
             }
         }
 
-        throw new SQLException("Account not found.");
+        throw new AccountNotFoundException(accountNumber);
     }
 
-    public boolean updateBalance(String accountNumber, double newBalance) throws SQLException {
-        String query = "UPDATE accounts SET balance = ? WHERE account_number = ?";
+    public boolean updateBalance(String accountNumber, Money newBalance) throws SQLException {
+        return metrics.time("AccountService.updateBalance", () -> {
+            try (Connection connection = connectionPool.getConnection()) {
+                boolean updated = updateBalance(connection, accountNumber, newBalance);
+                if (updated) {
+                    // Auto-commit is on here, so the write is already committed
+                    evictFromCache(accountNumber);
+                }
+                return updated;
+            }
+        });
+    }
+
+    boolean updateBalance(Connection connection, String accountNumber, Money newBalance) throws SQLException {
+        String query = "UPDATE accounts SET balance = ? / 100 WHERE account_number = ?";
         try (PreparedStatement stmt = connection.prepareStatement(query)) {
-            stmt.setDouble(1, newBalance);
+            stmt.setLong(1, newBalance.getCents());
             stmt.setString(2, accountNumber);
 
+            // The caller may still roll back, so drop the entry rather than trust it
+            evictFromCache(accountNumber);
+
             int rowsAffected = stmt.executeUpdate();
             return rowsAffected > 0;
         }
     }
 
+    // Adds amount to the balance in one statement and returns the new balance.
+    // LAST_INSERT_ID(expr) echoes the updated balance (in cents) back in the
+    // update's OK packet, so no follow-up SELECT is needed.
+    Money credit(Connection connection, String accountNumber, Money amount) throws SQLException {
+        requirePositive(amount);
+        String query = "UPDATE accounts SET balance = LAST_INSERT_ID(balance * 100 + ?) / 100 WHERE account_number = ?";
+        try (PreparedStatement stmt = connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS)) {
+            stmt.setLong(1, amount.getCents());
+            stmt.setString(2, accountNumber);
+
+            if (stmt.executeUpdate() == 0) {
+                throw new AccountNotFoundException(accountNumber);
+            }
+            return readUpdatedBalance(stmt);
+        }
+    }
+
+    // Subtracts amount only if the balance covers it. A zero row count means
+    // either the account is missing or funds are short; only then do we look.
+    Money debit(Connection connection, String accountNumber, Money amount) throws SQLException {
+        requirePositive(amount);
+        String query = "UPDATE accounts SET balance = LAST_INSERT_ID(balance * 100 - ?) / 100 " +
+                "WHERE account_number = ? AND balance * 100 >= ?";
+        try (PreparedStatement stmt = connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS)) {
+            stmt.setLong(1, amount.getCents());
+            stmt.setString(2, accountNumber);
+            stmt.setLong(3, amount.getCents());
+
+            if (stmt.executeUpdate() > 0) {
+                return readUpdatedBalance(stmt);
+            }
+        }
+
+        // Nothing matched: getBalance throws if the account is missing,
+        // otherwise the funds were short
+        throw new InsufficientFundsException(accountNumber, getBalance(connection, accountNumber));
+    }
+
+    // A negative credit would be a debit that skips the funds check, and
+    // LAST_INSERT_ID can't carry a negative balance back
+    private static void requirePositive(Money amount) {
+        if (!amount.isPositive()) {
+            throw new IllegalArgumentException("Amount must be greater than zero.");
+        }
+    }
+
+    private static Money readUpdatedBalance(PreparedStatement stmt) throws SQLException {
+        try (ResultSet keys = stmt.getGeneratedKeys()) {
+            // A new balance of exactly zero leaves LAST_INSERT_ID at 0, which
+            // the driver reports as no generated key
+            return keys.next() ? Money.ofCents(keys.getLong(1)) : Money.ZERO;
+        }
+    }
+
     public boolean accountExists(String accountNumber) throws SQLException {
-        String query = "SELECT COUNT(*) FROM accounts WHERE account_number = ?";
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+        return metrics.time("AccountService.accountExists", () -> {
+            AccountCache.Entry entry = cachedAccount(accountNumber);
+            if (entry != null) {
+                return entry.exists;
+            }
+
+            try (Connection connection = readConnection(accountNumber)) {
+                return accountExists(connection, accountNumber);
+            }
+        });
+    }
+
+    // Read-through lookup: a miss loads the account row and caches it
+    private AccountCache.Entry cachedAccount(String accountNumber) throws SQLException {
+        if (accountCache == null) {
+            return null;
+        }
+
+        AccountCache.Entry entry = accountCache.get(accountNumber);
+        if (entry != null) {
+            return entry;
+        }
+
+        // A write that commits while we read makes the cache refuse the row
+        long generation = accountCache.generation(accountNumber);
+        String query = "SELECT name, " + BALANCE_CENTS + " FROM accounts WHERE account_number = ?";
+        try (Connection connection = readConnection(accountNumber);
+             PreparedStatement stmt = connection.prepareStatement(query)) {
             stmt.setString(1, accountNumber);
 
             ResultSet resultSet = stmt.executeQuery();
             if (resultSet.next()) {
-                return resultSet.getInt(1) > 0;
+                return accountCache.put(accountNumber, resultSet.getString("name"),
+                        Money.ofCents(resultSet.getLong("balance_cents")), generation);
             }
+            return accountCache.putMissing(accountNumber, generation);
         }
-
-        return false;
     }
 
-    private String generateUniqueAccountNumber() throws SQLException {
-        Random random = new Random();
-        boolean isUnique = false;
-        String accountNumber = "";
+    // Called after every balance write, once it has committed, rolled back
+    // or ended in doubt. Writers don't put their new balance in the cache:
+    // nothing orders two writers' cache updates the way their commits are
+    // ordered, so an older balance could overwrite a newer one. The next
+    // read loads the committed row instead.
+    void evictFromCache(String accountNumber) {
+        if (accountCache != null) {
+            accountCache.invalidate(accountNumber);
+        }
+        recordWrite(accountNumber);
+    }
 
-        while (!isUnique) {
-            // Generate a random 5-digit number
-            int randomNum = 10000 + random.nextInt(90000);
-            accountNumber = String.valueOf(randomNum);
+    // Keeps the account's reads on the primary until replicas have the write
+    private void recordWrite(String accountNumber) {
+        if (replicaRouter != null) {
+            replicaRouter.recordWrite(accountNumber);
+        }
+    }
 
-            // Check if it's unique
-            String query = "SELECT COUNT(*) FROM accounts WHERE account_number = ?";
-            try (PreparedStatement stmt = connection.prepareStatement(query)) {
-                stmt.setString(1, accountNumber);
+    // Read-only lookups may go to a replica; anything that writes uses the pool
+    Connection readConnection(String accountNumber) throws SQLException {
+        return replicaRouter != null ? replicaRouter.getReadConnection(accountNumber) : connectionPool.getConnection();
+    }
 
-                ResultSet resultSet = stmt.executeQuery();
-                if (resultSet.next() && resultSet.getInt(1) == 0) {
-                    isUnique = true;
-                }
-            }
-        }
+    public ReplicaRouter getReplicaRouter() {
+        return replicaRouter;
+    }
 
-        return accountNumber;
+    public AccountCache getAccountCache() {
+        return accountCache;
     }
 
-    private String hashPin(String pin) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            byte[] hashedBytes = md.digest(pin.getBytes());
+    boolean accountExists(Connection connection, String accountNumber) throws SQLException {
+        String query = "SELECT COUNT(*) FROM accounts WHERE account_number = ?";
+        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+            stmt.setString(1, accountNumber);
 
-            StringBuilder hexString = new StringBuilder();
-            for (byte b : hashedBytes) {
-                hexString.append(String.format("%02x", b));
+            ResultSet resultSet = stmt.executeQuery();
+            if (resultSet.next()) {
+                return resultSet.getInt(1) > 0;
             }
-
-            return hexString.toString();
-        } catch (NoSuchAlgorithmException e) {
-            // Fall back to simple method if SHA-256 is not available
-            return "HASH_" + pin;
         }
+
+        return false;
     }
 }
\ No newline at end of file
@@ -0,0 +1,697 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Optional in-memory engine for deposits, withdrawals and transfers. Every
+// balance is held in cents in primitive arrays indexed by account number
+// (five digits, so 100,000 slots in all). The slots are split across shards
+// and only a shard's own thread touches its slots, so applying a posting
+// needs no locks and no database round trip.
+//
+// Postings reach a shard through a lock-free queue. A transfer between
+// shards goes in two phases: the sender's shard checks and debits the amount
+// and passes the credit on to the recipient's shard. If the recipient does
+// not exist, the recipient's shard sends it back and the sender's shard
+// refunds it. In between, the money is in neither account.
+//
+// Completed postings are written to accounts and transactions by a single
+// persister, many at a time in one database transaction, as net balance
+// changes per account. A posting's future completes only after that commit.
+// Each batch holds whole postings only, so the tables never show half a
+// transfer. A batch that still fails after MAX_PERSIST_ATTEMPTS is written
+// a posting at a time; postings that can't be written then complete as
+// FAILED and their effect on the in-memory balances is undone. A posting
+// applied meanwhile may have relied on the undone amount; that is the
+// remaining risk, and it only arises while the database refuses writes.
+//
+// Accounts the engine hasn't seen (opened after start()) are read by a
+// small loader pool, not the shard thread; postings for that account wait
+// on the shard until the read is back, and the rest of the shard carries on.
+//
+// While the engine runs it must be the only thing changing balances.
+class BalanceEngine implements AutoCloseable {
+    private static final int ACCOUNT_SLOTS = 100_000;
+    // Slot of an account the engine has not looked up yet
+    private static final long UNLOADED = Long.MIN_VALUE;
+    // Slot of an account the database says doesn't exist; looked up again
+    // after ABSENT_RECHECK_MILLIS in case it has been opened since
+    private static final long ABSENT = Long.MIN_VALUE + 1;
+    private static final long ABSENT_RECHECK_MILLIS = 1_000;
+    private static final int DEFAULT_PERSIST_BATCH_SIZE = 5_000;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long MAX_PERSIST_BACKOFF_MILLIS = 5_000;
+    private static final int MAX_PERSIST_ATTEMPTS = 5;
+    // Give up writing postings one by one after this many fail in a row
+    private static final int MAX_SEPARATE_FAILURES = 3;
+    private static final int MAX_LOADER_THREADS = 4;
+    private static final int LOAD_FETCH_SIZE = 1_000;
+
+    private final ConnectionPool connectionPool;
+    private final AccountService accountService;
+    private final Shard[] shards;
+    private final int persistBatchSize;
+    private final ExecutorService loader;
+
+    private final LongAdder applied = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder persisted = new LongAdder();
+    private final LongAdder persistBatches = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    // Commands submitted and not yet finished, including cross-shard
+    // transfers between their two phases; close() waits for it to drain
+    private final LongAdder pending = new LongAdder();
+
+    private volatile boolean stopping;
+    private volatile boolean stopped;
+    private Thread persister;
+
+    public BalanceEngine(ConnectionPool connectionPool, AccountService accountService, int shardCount) {
+        this(connectionPool, accountService, shardCount, DEFAULT_PERSIST_BATCH_SIZE);
+    }
+
+    public BalanceEngine(ConnectionPool connectionPool, AccountService accountService, int shardCount,
+                         int persistBatchSize) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("Shard count must be greater than zero.");
+        }
+        this.connectionPool = connectionPool;
+        this.accountService = accountService;
+        this.persistBatchSize = persistBatchSize;
+
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(i, (ACCOUNT_SLOTS + shardCount - 1) / shardCount);
+        }
+        this.loader = Executors.newFixedThreadPool(Math.min(shardCount, MAX_LOADER_THREADS), runnable -> {
+            Thread thread = new Thread(runnable, "balance-engine-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Loads every balance, then starts the shard and persister threads
+    public void start() throws SQLException {
+        String query = "SELECT account_number, CAST(balance * 100 AS SIGNED) FROM accounts";
+        try (Connection connection = connectionPool.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
+            stmt.setFetchSize(LOAD_FETCH_SIZE);
+            ResultSet resultSet = stmt.executeQuery();
+            while (resultSet.next()) {
+                int slot = slotOf(resultSet.getString(1));
+                if (slot >= 0) {
+                    shardOf(slot).balances[slot / shards.length] = resultSet.getLong(2);
+                }
+            }
+        }
+
+        for (Shard shard : shards) {
+            shard.thread = new Thread(shard, "balance-engine-shard-" + shard.id);
+            shard.thread.setDaemon(true);
+            shard.thread.start();
+        }
+        persister = new Thread(this::persistLoop, "balance-engine-persister");
+        persister.setDaemon(true);
+        persister.start();
+    }
+
+    // Completes once the posting is rejected, or applied and persisted.
+    // Anything that can be rejected without a balance is rejected here, so
+    // shard threads only see postings they can apply.
+    public CompletableFuture<PostingStatus> submit(Posting posting) {
+        CompletableFuture<PostingStatus> future = new CompletableFuture<>();
+        if (!posting.getAmount().isPositive()) {
+            rejected.increment();
+            future.complete(PostingStatus.INVALID_AMOUNT);
+            return future;
+        }
+        int slot = slotOf(posting.getAccountNumber());
+        int recipientSlot = posting.isTransfer() ? slotOf(posting.getRecipientAccount()) : -1;
+        if (slot < 0 || (posting.isTransfer() && recipientSlot < 0)) {
+            rejected.increment();
+            future.complete(PostingStatus.ACCOUNT_NOT_FOUND);
+            return future;
+        }
+
+        pending.increment();
+        if (stopping) {
+            pending.decrement();
+            future.complete(PostingStatus.FAILED);
+            return future;
+        }
+        shardOf(slot).offer(new PostingCommand(posting, slot, recipientSlot, future));
+        return future;
+    }
+
+    public CompletableFuture<PostingStatus> deposit(String accountNumber, Money amount) {
+        return submit(Posting.deposit(accountNumber, amount));
+    }
+
+    public CompletableFuture<PostingStatus> withdraw(String accountNumber, Money amount) {
+        return submit(Posting.withdraw(accountNumber, amount));
+    }
+
+    public CompletableFuture<PostingStatus> transfer(String fromAccount, String toAccount, Money amount) {
+        return submit(Posting.transfer(fromAccount, toAccount, amount));
+    }
+
+    // The engine's balance, which may be ahead of the database; null if the
+    // account does not exist
+    public CompletableFuture<Money> getBalance(String accountNumber) {
+        CompletableFuture<Money> future = new CompletableFuture<>();
+        int slot = slotOf(accountNumber);
+        if (slot < 0) {
+            future.complete(null);
+            return future;
+        }
+
+        pending.increment();
+        if (stopping) {
+            pending.decrement();
+            future.complete(null);
+            return future;
+        }
+        shardOf(slot).offer(new BalanceQuery(accountNumber, slot, future));
+        return future;
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    public long getAppliedCount() {
+        return applied.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public long getPersistedCount() {
+        return persisted.sum();
+    }
+
+    public long getPersistBatches() {
+        return persistBatches.sum();
+    }
+
+    // Applied in memory but never written, so completed as FAILED and undone
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    // Stops taking postings, lets the shards finish what they have queued and
+    // waits for the persister to write it
+    @Override
+    public void close() {
+        stopping = true;
+        try {
+            while (pending.sum() > 0) {
+                TimeUnit.MILLISECONDS.sleep(1);
+            }
+            stopped = true;
+            for (Shard shard : shards) {
+                if (shard.thread != null) {
+                    LockSupport.unpark(shard.thread);
+                    shard.thread.join();
+                }
+            }
+            if (persister != null) {
+                LockSupport.unpark(persister);
+                persister.join();
+            }
+            loader.shutdownNow();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BalanceEngine [shards=" + shards.length + ", applied=" + getAppliedCount() + ", rejected="
+                + getRejectedCount() + ", persisted=" + getPersistedCount() + ", persistBatches="
+                + getPersistBatches() + ", failed=" + getFailedCount() + "]";
+    }
+
+    // Account numbers are five digits; anything else cannot exist
+    private static int slotOf(String accountNumber) {
+        if (accountNumber == null || accountNumber.length() != 5) {
+            return -1;
+        }
+        int slot = 0;
+        for (int i = 0; i < 5; i++) {
+            char c = accountNumber.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            slot = slot * 10 + (c - '0');
+        }
+        return slot;
+    }
+
+    private Shard shardOf(int slot) {
+        return shards[slot % shards.length];
+    }
+
+    private void persistLoop() {
+        List<Completed> batch = new ArrayList<>(persistBatchSize);
+        long backoff = 0;
+        int attempts = 0;
+
+        while (true) {
+            if (batch.isEmpty()) {
+                // Read the flag first so nothing queued before the shards stopped is missed
+                boolean finished = stopped && !anyShardRunning();
+                for (Shard shard : shards) {
+                    Completed completed;
+                    while (batch.size() < persistBatchSize && (completed = shard.completed.poll()) != null) {
+                        batch.add(completed);
+                    }
+                }
+                if (batch.isEmpty()) {
+                    if (finished) {
+                        return;
+                    }
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                    continue;
+                }
+            }
+
+            try {
+                persist(batch);
+                backoff = 0;
+                attempts = 0;
+            } catch (SQLException e) {
+                if (++attempts >= MAX_PERSIST_ATTEMPTS) {
+                    System.out.println("Balance engine: persist failed " + attempts + " times, writing postings "
+                            + "one at a time: " + e.getMessage());
+                    persistSeparately(batch);
+                    batch.clear();
+                    backoff = 0;
+                    attempts = 0;
+                    continue;
+                }
+                // Keep the batch and try it again; the futures wait
+                backoff = Math.min(MAX_PERSIST_BACKOFF_MILLIS, Math.max(10, backoff * 2));
+                System.out.println("Balance engine: persist failed, retrying in " + backoff + " ms: " + e.getMessage());
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(backoff));
+                continue;
+            }
+
+            for (Completed completed : batch) {
+                completed.future.complete(PostingStatus.SUCCESS);
+            }
+            batch.clear();
+        }
+    }
+
+    // Writes each posting on its own so one bad posting only fails itself.
+    // After a few failures in a row the database is taken to be refusing
+    // everything, and the rest fail without another attempt.
+    private void persistSeparately(List<Completed> batch) {
+        int failuresInRow = 0;
+        for (Completed completed : batch) {
+            if (failuresInRow < MAX_SEPARATE_FAILURES) {
+                try {
+                    persist(List.of(completed));
+                    completed.future.complete(PostingStatus.SUCCESS);
+                    failuresInRow = 0;
+                    continue;
+                } catch (SQLException e) {
+                    failuresInRow++;
+                    System.out.println("Balance engine: cannot persist " + completed.posting + ": " + e.getMessage());
+                }
+            }
+            undo(completed.posting);
+            failed.increment();
+            completed.future.complete(PostingStatus.FAILED);
+        }
+    }
+
+    // Reverses a posting's in-memory effect on the shards that own its accounts
+    private void undo(Posting posting) {
+        long cents = posting.getAmount().getCents();
+        int slot = slotOf(posting.getAccountNumber());
+        shardOf(slot).offer(new Adjustment(slot, posting.isCredit() ? -cents : cents));
+        if (posting.isTransfer()) {
+            int recipientSlot = slotOf(posting.getRecipientAccount());
+            shardOf(recipientSlot).offer(new Adjustment(recipientSlot, -cents));
+        }
+    }
+
+    private boolean anyShardRunning() {
+        for (Shard shard : shards) {
+            if (shard.thread != null && shard.thread.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void persist(List<Completed> batch) throws SQLException {
+        // Net change per account, in key order so other lockers can't deadlock with us
+        Map<String, Long> deltas = new TreeMap<>();
+        for (Completed completed : batch) {
+            Posting posting = completed.posting;
+            long cents = posting.getAmount().getCents();
+            deltas.merge(posting.getAccountNumber(), posting.isCredit() ? cents : -cents, Long::sum);
+            if (posting.isTransfer()) {
+                deltas.merge(posting.getRecipientAccount(), cents, Long::sum);
+            }
+        }
+
+        try (Connection connection = connectionPool.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                String updateQuery = "UPDATE accounts SET balance = balance + ? / 100 WHERE account_number = ?";
+                try (PreparedStatement stmt = connection.prepareStatement(updateQuery)) {
+                    for (Map.Entry<String, Long> delta : deltas.entrySet()) {
+                        if (delta.getValue() != 0) {
+                            stmt.setLong(1, delta.getValue());
+                            stmt.setString(2, delta.getKey());
+                            stmt.addBatch();
+                        }
+                    }
+                    stmt.executeBatch();
+                }
+
+                String insertQuery = "INSERT INTO transactions (account_number, transaction_type, amount, recipient_account) VALUES (?, ?, ? / 100, ?)";
+                try (PreparedStatement stmt = connection.prepareStatement(insertQuery)) {
+                    for (Completed completed : batch) {
+                        Posting posting = completed.posting;
+                        stmt.setString(1, posting.getAccountNumber());
+                        stmt.setString(2, posting.getType());
+                        stmt.setLong(3, posting.getAmount().getCents());
+                        stmt.setString(4, posting.getRecipientAccount());
+                        stmt.addBatch();
+                    }
+                    stmt.executeBatch();
+                }
+
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+
+        for (String accountNumber : deltas.keySet()) {
+            accountService.evictFromCache(accountNumber);
+        }
+        persisted.add(batch.size());
+        persistBatches.increment();
+    }
+
+    // Balance of an account the engine has not seen, e.g. one opened after
+    // start(); ABSENT if it does not exist, UNLOADED if it can't be read.
+    // Runs on a loader thread.
+    private long loadBalance(String accountNumber) {
+        String query = "SELECT CAST(balance * 100 AS SIGNED) FROM accounts WHERE account_number = ?";
+        try (Connection connection = connectionPool.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
+            stmt.setString(1, accountNumber);
+            ResultSet resultSet = stmt.executeQuery();
+            return resultSet.next() ? resultSet.getLong(1) : ABSENT;
+        } catch (SQLException e) {
+            System.out.println("Balance engine: cannot load account " + accountNumber + ": " + e.getMessage());
+            return UNLOADED;
+        }
+    }
+
+    // A group of account slots owned by one thread. balances[i] holds the
+    // slot i * shardCount + id, so neighbouring slots of different shards
+    // never share a cache line.
+    private final class Shard implements Runnable {
+        final int id;
+        final long[] balances;
+        // When each ABSENT slot may be looked up again
+        final long[] recheckAt;
+        final Queue<Command> inbox = new ConcurrentLinkedQueue<>();
+        final Queue<Completed> completed = new ConcurrentLinkedQueue<>();
+        // Slots being read by the loader, with the commands waiting for them
+        final Map<Integer, List<Command>> loading = new HashMap<>();
+        volatile Thread thread;
+
+        Shard(int id, int slots) {
+            this.id = id;
+            this.balances = new long[slots];
+            this.recheckAt = new long[slots];
+            Arrays.fill(balances, UNLOADED);
+        }
+
+        void offer(Command command) {
+            inbox.add(command);
+            LockSupport.unpark(thread);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Command command = inbox.poll();
+                if (command != null) {
+                    command.run(this);
+                } else if (stopped) {
+                    return;
+                } else {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+            }
+        }
+
+        // True once the slot's account is known: loaded, or known not to
+        // exist and not due a recheck. Otherwise the command waits until a
+        // loader thread has read the account, then runs again, and this
+        // returns false. A missing account costs one lookup per recheck
+        // interval, not one per posting.
+        boolean ready(int slot, String accountNumber, Command command) {
+            List<Command> waiting = loading.get(slot);
+            if (waiting != null) {
+                waiting.add(command);
+                return false;
+            }
+
+            int index = slot / shards.length;
+            long balance = balances[index];
+            if (balance != UNLOADED && (balance != ABSENT || System.currentTimeMillis() < recheckAt[index])) {
+                return true;
+            }
+
+            waiting = new ArrayList<>();
+            waiting.add(command);
+            loading.put(slot, waiting);
+            loader.execute(() -> offer(new Loaded(slot, loadBalance(accountNumber))));
+            return false;
+        }
+
+        // Only meaningful once ready() has returned true for the slot
+        boolean exists(int slot) {
+            long balance = balances[slot / shards.length];
+            return balance != UNLOADED && balance != ABSENT;
+        }
+
+        void loaded(int slot, long balance) {
+            int index = slot / shards.length;
+            // An account that couldn't be read is treated as missing until the next recheck
+            balances[index] = balance == UNLOADED ? ABSENT : balance;
+            if (balances[index] == ABSENT) {
+                recheckAt[index] = System.currentTimeMillis() + ABSENT_RECHECK_MILLIS;
+            }
+            for (Command command : loading.remove(slot)) {
+                command.run(this);
+            }
+        }
+
+        long balance(int slot) {
+            return balances[slot / shards.length];
+        }
+
+        void add(int slot, long cents) {
+            balances[slot / shards.length] += cents;
+        }
+    }
+
+    private interface Command {
+        void run(Shard shard);
+    }
+
+    private final class PostingCommand implements Command {
+        private static final int APPLY = 0;
+        private static final int CREDIT = 1;
+        private static final int REFUND = 2;
+
+        final Posting posting;
+        final int slot;
+        final int recipientSlot;
+        final CompletableFuture<PostingStatus> future;
+        int phase = APPLY;
+
+        // submit() has checked the amount and both account numbers
+        PostingCommand(Posting posting, int slot, int recipientSlot, CompletableFuture<PostingStatus> future) {
+            this.posting = posting;
+            this.slot = slot;
+            this.recipientSlot = recipientSlot;
+            this.future = future;
+        }
+
+        @Override
+        public void run(Shard shard) {
+            if (phase == CREDIT) {
+                credit(shard);
+            } else if (phase == REFUND) {
+                shard.add(slot, posting.getAmount().getCents());
+                reject(PostingStatus.ACCOUNT_NOT_FOUND);
+            } else {
+                apply(shard);
+            }
+        }
+
+        private void apply(Shard shard) {
+            if (!shard.ready(slot, posting.getAccountNumber(), this)) {
+                return;
+            }
+            long cents = posting.getAmount().getCents();
+            if (!shard.exists(slot)) {
+                reject(PostingStatus.ACCOUNT_NOT_FOUND);
+                return;
+            }
+
+            if (posting.isCredit()) {
+                shard.add(slot, cents);
+                complete(shard);
+                return;
+            }
+
+            if (posting.isTransfer() && shardOf(recipientSlot) == shard) {
+                if (!shard.ready(recipientSlot, posting.getRecipientAccount(), this)) {
+                    return;
+                }
+                if (!shard.exists(recipientSlot)) {
+                    reject(PostingStatus.ACCOUNT_NOT_FOUND);
+                    return;
+                }
+            }
+            if (shard.balance(slot) < cents) {
+                reject(PostingStatus.INSUFFICIENT_FUNDS);
+                return;
+            }
+
+            shard.add(slot, -cents);
+            if (!posting.isTransfer()) {
+                complete(shard);
+            } else if (shardOf(recipientSlot) == shard) {
+                shard.add(recipientSlot, cents);
+                complete(shard);
+            } else {
+                // Phase two runs on the recipient's shard
+                phase = CREDIT;
+                shardOf(recipientSlot).offer(this);
+            }
+        }
+
+        private void credit(Shard shard) {
+            if (!shard.ready(recipientSlot, posting.getRecipientAccount(), this)) {
+                return;
+            }
+            if (!shard.exists(recipientSlot)) {
+                phase = REFUND;
+                shardOf(slot).offer(this);
+                return;
+            }
+            shard.add(recipientSlot, posting.getAmount().getCents());
+            complete(shard);
+        }
+
+        // Applied in memory; the persister completes the future
+        private void complete(Shard shard) {
+            applied.increment();
+            shard.completed.add(new Completed(posting, future));
+            pending.decrement();
+        }
+
+        private void reject(PostingStatus status) {
+            rejected.increment();
+            pending.decrement();
+            future.complete(status);
+        }
+    }
+
+    private final class BalanceQuery implements Command {
+        final String accountNumber;
+        final int slot;
+        final CompletableFuture<Money> future;
+
+        BalanceQuery(String accountNumber, int slot, CompletableFuture<Money> future) {
+            this.accountNumber = accountNumber;
+            this.slot = slot;
+            this.future = future;
+        }
+
+        @Override
+        public void run(Shard shard) {
+            if (!shard.ready(slot, accountNumber, this)) {
+                return;
+            }
+            Money balance = shard.exists(slot) ? Money.ofCents(shard.balance(slot)) : null;
+            pending.decrement();
+            future.complete(balance);
+        }
+    }
+
+    // A loader thread's read of an account, handed back to the owning shard
+    private static final class Loaded implements Command {
+        final int slot;
+        final long balance;
+
+        Loaded(int slot, long balance) {
+            this.slot = slot;
+            this.balance = balance;
+        }
+
+        @Override
+        public void run(Shard shard) {
+            shard.loaded(slot, balance);
+        }
+    }
+
+    // Undoes a posting that could not be persisted
+    private static final class Adjustment implements Command {
+        final int slot;
+        final long cents;
+
+        Adjustment(int slot, long cents) {
+            this.slot = slot;
+            this.cents = cents;
+        }
+
+        @Override
+        public void run(Shard shard) {
+            shard.add(slot, cents);
+        }
+    }
+
+    private static final class Completed {
+        final Posting posting;
+        final CompletableFuture<PostingStatus> future;
+
+        Completed(Posting posting, CompletableFuture<PostingStatus> future) {
+            this.posting = posting;
+            this.future = future;
+        }
+    }
+}
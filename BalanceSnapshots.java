@@ -0,0 +1,461 @@
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// End-of-day balance snapshots for point-in-time balance queries.
+// balance_snapshots holds each account's balance at the end of every day it
+// had activity; balance_snapshot_state holds the high-water mark, the last
+// transactions.id folded into the snapshots. refresh() folds in rows past
+// the mark, a chunk of ids per database transaction.
+//
+// The first refresh also records an opening row (dated OPENING_DATE) per
+// account: its balance minus everything its transactions explain, i.e. what
+// it held before any recorded transaction. Balances changed without a
+// transactions row after that (updateBalance, benchmark seeding) are not
+// reflected.
+//
+// The mark only moves past rows older than the settle window, but a
+// transaction can stay open longer than that (a postBatch chunk, a
+// GroupCommitter group) and commit a lower id after the mark has passed it.
+// So every id the mark passes without finding a row is recorded in
+// balance_snapshot_gaps, in the same transaction as the fold. Each refresh
+// folds the gaps that have since been filled and deletes them; gaps left
+// by rollbacks are dropped after GAP_RETENTION_SECONDS. What remains is a
+// transaction that commits more than that long after taking its id: its
+// row is never folded in.
+//
+// getBalanceAsOf() reads the nearest snapshot before the day in question and
+// replays only that day up to the given time, plus any rows past the mark
+// or in a gap.
+// Times are in the database session's time zone, like transactions.timestamp.
+class BalanceSnapshots {
+    static final LocalDate OPENING_DATE = LocalDate.of(1000, 1, 1);
+
+    private static final String LOCK_NAME = "bank_balance_snapshots";
+    private static final int DEFAULT_CHUNK_IDS = 50_000;
+    // Rows younger than this may still have lower-id neighbours uncommitted,
+    // so the mark never moves past them
+    private static final int DEFAULT_SETTLE_SECONDS = 10;
+    private static final int GAP_RETENTION_SECONDS = 24 * 60 * 60;
+    private static final int GAP_FOLD_BATCH = 1_000;
+
+    // Net effect of each row on each account it touches, in dollars
+    private static final String DELTAS =
+            "SELECT account_number AS account, timestamp, id, " +
+                    "CASE WHEN transaction_type = 'DEPOSIT' THEN amount ELSE -amount END AS delta FROM transactions %1$s " +
+                    "UNION ALL " +
+                    "SELECT recipient_account, timestamp, id, amount FROM transactions %2$s";
+
+    private static final String IN_GAP = "id IN (SELECT id FROM balance_snapshot_gaps)";
+
+    private final ConnectionPool connectionPool;
+    private final int chunkIds;
+    private final int settleSeconds;
+
+    public BalanceSnapshots(ConnectionPool connectionPool) {
+        this(connectionPool, DEFAULT_CHUNK_IDS, DEFAULT_SETTLE_SECONDS);
+    }
+
+    public BalanceSnapshots(ConnectionPool connectionPool, int chunkIds, int settleSeconds) {
+        this.connectionPool = connectionPool;
+        this.chunkIds = chunkIds;
+        this.settleSeconds = settleSeconds;
+    }
+
+    // Folds settled transactions past the high-water mark, and late rows that
+    // filled gaps below it, into the snapshots and returns how many
+    // account-days were written; -1 if another refresh is already running
+    public int refresh() throws SQLException {
+        try (Connection connection = connectionPool.getConnection()) {
+            if (!tryLock(connection)) {
+                return -1;
+            }
+            try {
+                long highWater = initialize(connection);
+                Map<String, Latest> latest = loadLatest(connection);
+                int written = foldFilledGaps(connection, latest);
+                dropExpiredGaps(connection);
+
+                long target = settledMaxId(connection, highWater);
+                while (highWater < target) {
+                    long chunkEnd = Math.min(target, highWater + chunkIds);
+                    written += foldChunk(connection, latest, highWater, chunkEnd);
+                    highWater = chunkEnd;
+                }
+                return written;
+            } finally {
+                unlock(connection);
+            }
+        }
+    }
+
+    // Balance at the given time, or null if the account does not exist
+    public Money getBalanceAsOf(String accountNumber, LocalDateTime asOf) throws SQLException {
+        try (Connection connection = connectionPool.getConnection()) {
+            // One consistent read across the mark, the snapshots and the replay
+            connection.setAutoCommit(false);
+            try {
+                Money balance = getBalanceAsOf(connection, accountNumber, asOf);
+                connection.commit();
+                return balance;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    private Money getBalanceAsOf(Connection connection, String accountNumber, LocalDateTime asOf) throws SQLException {
+        String existsQuery = "SELECT 1 FROM accounts WHERE account_number = ?";
+        try (PreparedStatement stmt = connection.prepareStatement(existsQuery)) {
+            stmt.setString(1, accountNumber);
+            if (!stmt.executeQuery().next()) {
+                return null;
+            }
+        }
+
+        long highWater;
+        String stateQuery = "SELECT high_water_id FROM balance_snapshot_state WHERE id = 1";
+        try (PreparedStatement stmt = connection.prepareStatement(stateQuery)) {
+            ResultSet resultSet = stmt.executeQuery();
+            if (!resultSet.next()) {
+                return getBalanceBeforeRefresh(connection, accountNumber, asOf);
+            }
+            highWater = resultSet.getLong(1);
+        }
+
+        // End of the last active day before asOf's day; an account with no
+        // snapshot started from zero
+        long cents = 0;
+        LocalDateTime dayStart = asOf.toLocalDate().atStartOfDay();
+        String snapshotQuery = "SELECT CAST(balance * 100 AS SIGNED) FROM balance_snapshots " +
+                "WHERE account_number = ? AND snapshot_date < ? ORDER BY snapshot_date DESC LIMIT 1";
+        try (PreparedStatement stmt = connection.prepareStatement(snapshotQuery)) {
+            stmt.setString(1, accountNumber);
+            stmt.setDate(2, Date.valueOf(asOf.toLocalDate()));
+            ResultSet resultSet = stmt.executeQuery();
+            if (resultSet.next()) {
+                cents = resultSet.getLong(1);
+            }
+        }
+
+        // The rest of that day up to asOf, plus anything not yet folded in
+        String replayQuery = "SELECT CAST(COALESCE(SUM(delta), 0) * 100 AS SIGNED) FROM (" + String.format(DELTAS,
+                "WHERE account_number = ? AND timestamp <= ? AND (timestamp >= ? OR id > ? OR " + IN_GAP + ")",
+                "WHERE recipient_account = ? AND timestamp <= ? AND (timestamp >= ? OR id > ? OR " + IN_GAP + ")") +
+                ") replay";
+        try (PreparedStatement stmt = connection.prepareStatement(replayQuery)) {
+            Timestamp end = Timestamp.valueOf(asOf);
+            Timestamp start = Timestamp.valueOf(dayStart);
+            for (int offset = 0; offset <= 4; offset += 4) {
+                stmt.setString(offset + 1, accountNumber);
+                stmt.setTimestamp(offset + 2, end);
+                stmt.setTimestamp(offset + 3, start);
+                stmt.setLong(offset + 4, highWater);
+            }
+            ResultSet resultSet = stmt.executeQuery();
+            resultSet.next();
+            cents += resultSet.getLong(1);
+        }
+        return Money.ofCents(cents);
+    }
+
+    // No snapshots yet, so there are no opening balances either: work back
+    // from the current balance through everything after asOf
+    private static Money getBalanceBeforeRefresh(Connection connection, String accountNumber, LocalDateTime asOf)
+            throws SQLException {
+        String query = "SELECT CAST(a.balance * 100 AS SIGNED) - (SELECT CAST(COALESCE(SUM(delta), 0) * 100 AS SIGNED) " +
+                "FROM (" + String.format(DELTAS, "WHERE account_number = ? AND timestamp > ?",
+                "WHERE recipient_account = ? AND timestamp > ?") + ") later) FROM accounts a WHERE a.account_number = ?";
+        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+            Timestamp after = Timestamp.valueOf(asOf);
+            stmt.setString(1, accountNumber);
+            stmt.setTimestamp(2, after);
+            stmt.setString(3, accountNumber);
+            stmt.setTimestamp(4, after);
+            stmt.setString(5, accountNumber);
+            ResultSet resultSet = stmt.executeQuery();
+            return resultSet.next() ? Money.ofCents(resultSet.getLong(1)) : null;
+        }
+    }
+
+    // Creates the state row on first use, recording every account's opening
+    // balance in the same transaction; returns the high-water mark
+    private static long initialize(Connection connection) throws SQLException {
+        String stateQuery = "SELECT high_water_id FROM balance_snapshot_state WHERE id = 1";
+        try (PreparedStatement stmt = connection.prepareStatement(stateQuery)) {
+            ResultSet resultSet = stmt.executeQuery();
+            if (resultSet.next()) {
+                return resultSet.getLong(1);
+            }
+        }
+
+        connection.setAutoCommit(false);
+        try {
+            // INSERT ... SELECT locks what it reads, so balances and
+            // transactions can't move apart while the openings are taken
+            String openingQuery = "INSERT INTO balance_snapshots (account_number, snapshot_date, balance) " +
+                    "SELECT a.account_number, ?, a.balance - COALESCE(n.net, 0) FROM accounts a LEFT JOIN (" +
+                    "SELECT account, SUM(delta) AS net FROM (" + String.format(DELTAS, "",
+                    "WHERE recipient_account IS NOT NULL") + ") deltas GROUP BY account" +
+                    ") n ON n.account = a.account_number";
+            try (PreparedStatement stmt = connection.prepareStatement(openingQuery)) {
+                stmt.setDate(1, Date.valueOf(OPENING_DATE));
+                stmt.executeUpdate();
+            }
+
+            String insertQuery = "INSERT INTO balance_snapshot_state (id, high_water_id) VALUES (1, 0)";
+            try (PreparedStatement stmt = connection.prepareStatement(insertQuery)) {
+                stmt.executeUpdate();
+            }
+            connection.commit();
+            return 0;
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    private long settledMaxId(Connection connection, long highWater) throws SQLException {
+        String query = "SELECT COALESCE(MAX(id), ?) FROM transactions " +
+                "WHERE id > ? AND timestamp < NOW() - INTERVAL ? SECOND";
+        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+            stmt.setLong(1, highWater);
+            stmt.setLong(2, highWater);
+            stmt.setInt(3, settleSeconds);
+            ResultSet resultSet = stmt.executeQuery();
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+
+    // Newest snapshot of every account, kept current as chunks are folded in
+    private static Map<String, Latest> loadLatest(Connection connection) throws SQLException {
+        Map<String, Latest> latest = new HashMap<>();
+        String query = "SELECT s.account_number, s.snapshot_date, CAST(s.balance * 100 AS SIGNED) " +
+                "FROM balance_snapshots s JOIN (SELECT account_number, MAX(snapshot_date) AS snapshot_date " +
+                "FROM balance_snapshots GROUP BY account_number) m " +
+                "ON m.account_number = s.account_number AND m.snapshot_date = s.snapshot_date";
+        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+            ResultSet resultSet = stmt.executeQuery();
+            while (resultSet.next()) {
+                latest.put(resultSet.getString(1),
+                        new Latest(resultSet.getDate(2).toLocalDate(), resultSet.getLong(3)));
+            }
+        }
+        return latest;
+    }
+
+    private static int foldChunk(Connection connection, Map<String, Latest> latest, long fromId, long toId)
+            throws SQLException {
+        Map<String, Latest> updated = new HashMap<>();
+        int written;
+
+        connection.setAutoCommit(false);
+        try {
+            written = fold(connection, latest, updated, "id > ? AND id <= ?", fromId, toId);
+            recordGaps(connection, fromId, toId);
+
+            String stateQuery = "UPDATE balance_snapshot_state SET high_water_id = ? WHERE id = 1 AND high_water_id = ?";
+            try (PreparedStatement stmt = connection.prepareStatement(stateQuery)) {
+                stmt.setLong(1, toId);
+                stmt.setLong(2, fromId);
+                if (stmt.executeUpdate() != 1) {
+                    throw new SQLException("Snapshot high-water mark moved during refresh.");
+                }
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+
+        latest.putAll(updated);
+        return written;
+    }
+
+    // Folds rows that committed after the mark passed their ids, a batch
+    // at a time, deleting each gap in the same transaction as its fold
+    private static int foldFilledGaps(Connection connection, Map<String, Latest> latest) throws SQLException {
+        int written = 0;
+        while (true) {
+            List<Long> filled = new ArrayList<>();
+            String filledQuery = "SELECT g.id FROM balance_snapshot_gaps g JOIN transactions t ON t.id = g.id " +
+                    "ORDER BY g.id LIMIT " + GAP_FOLD_BATCH;
+            try (PreparedStatement stmt = connection.prepareStatement(filledQuery)) {
+                ResultSet resultSet = stmt.executeQuery();
+                while (resultSet.next()) {
+                    filled.add(resultSet.getLong(1));
+                }
+            }
+            if (filled.isEmpty()) {
+                return written;
+            }
+
+            long[] ids = filled.stream().mapToLong(Long::longValue).toArray();
+            String inIds = "id IN (" + String.join(", ", Collections.nCopies(ids.length, "?")) + ")";
+            Map<String, Latest> updated = new HashMap<>();
+            connection.setAutoCommit(false);
+            try {
+                written += fold(connection, latest, updated, inIds, ids);
+                try (PreparedStatement stmt = connection.prepareStatement(
+                        "DELETE FROM balance_snapshot_gaps WHERE " + inIds)) {
+                    for (int i = 0; i < ids.length; i++) {
+                        stmt.setLong(i + 1, ids[i]);
+                    }
+                    stmt.executeUpdate();
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+            latest.putAll(updated);
+        }
+    }
+
+    // Ids the mark is about to pass that have no row yet: still uncommitted,
+    // or rolled back
+    private static void recordGaps(Connection connection, long fromId, long toId) throws SQLException {
+        String idsQuery = "SELECT id FROM transactions WHERE id > ? AND id <= ? ORDER BY id";
+        String insertQuery = "INSERT IGNORE INTO balance_snapshot_gaps (id) VALUES (?)";
+        try (PreparedStatement ids = connection.prepareStatement(idsQuery);
+             PreparedStatement insert = connection.prepareStatement(insertQuery)) {
+            ids.setLong(1, fromId);
+            ids.setLong(2, toId);
+            ResultSet resultSet = ids.executeQuery();
+            long expected = fromId + 1;
+            while (true) {
+                long next = resultSet.next() ? resultSet.getLong(1) : toId + 1;
+                for (long missing = expected; missing < next; missing++) {
+                    insert.setLong(1, missing);
+                    insert.addBatch();
+                }
+                if (next > toId) {
+                    break;
+                }
+                expected = next + 1;
+            }
+            insert.executeBatch();
+        }
+    }
+
+    private static void dropExpiredGaps(Connection connection) throws SQLException {
+        String query = "DELETE FROM balance_snapshot_gaps WHERE recorded_at < NOW() - INTERVAL ? SECOND";
+        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+            stmt.setInt(1, GAP_RETENTION_SECONDS);
+            stmt.executeUpdate();
+        }
+    }
+
+    // Adds the rows matching the filter to the snapshots, inside the
+    // caller's transaction; updated collects each account's new latest
+    private static int fold(Connection connection, Map<String, Latest> latest, Map<String, Latest> updated,
+                            String filter, long... params) throws SQLException {
+        int written = 0;
+        String dayQuery = "SELECT account, DATE(timestamp), CAST(SUM(delta) * 100 AS SIGNED) FROM (" +
+                String.format(DELTAS, "WHERE " + filter, "WHERE " + filter + " AND recipient_account IS NOT NULL") +
+                ") deltas GROUP BY account, DATE(timestamp) ORDER BY account, DATE(timestamp)";
+        String upsertQuery = "INSERT INTO balance_snapshots (account_number, snapshot_date, balance) " +
+                "VALUES (?, ?, ? / 100) ON DUPLICATE KEY UPDATE balance = VALUES(balance)";
+        try (PreparedStatement days = connection.prepareStatement(dayQuery);
+             PreparedStatement upsert = connection.prepareStatement(upsertQuery)) {
+            for (int i = 0; i < params.length; i++) {
+                days.setLong(i + 1, params[i]);
+                days.setLong(params.length + i + 1, params[i]);
+            }
+
+            ResultSet resultSet = days.executeQuery();
+            while (resultSet.next()) {
+                String account = resultSet.getString(1);
+                LocalDate day = resultSet.getDate(2).toLocalDate();
+                long delta = resultSet.getLong(3);
+
+                Latest current = updated.containsKey(account) ? updated.get(account) : latest.get(account);
+                if (current != null && day.isBefore(current.date)) {
+                    // A late row for a day already snapshotted: shift it and every later day
+                    shiftFrom(connection, account, day, delta);
+                    updated.put(account, new Latest(current.date, current.cents + delta));
+                } else {
+                    long cents = (current == null ? 0 : current.cents) + delta;
+                    upsert.setString(1, account);
+                    upsert.setDate(2, Date.valueOf(day));
+                    upsert.setLong(3, cents);
+                    upsert.addBatch();
+                    updated.put(account, new Latest(day, cents));
+                }
+                written++;
+            }
+            upsert.executeBatch();
+        }
+        return written;
+    }
+
+    private static void shiftFrom(Connection connection, String account, LocalDate day, long delta)
+            throws SQLException {
+        // The day's own row starts from the nearest earlier snapshot if it is new
+        String insertQuery = "INSERT INTO balance_snapshots (account_number, snapshot_date, balance) " +
+                "SELECT ?, ?, COALESCE((SELECT balance FROM balance_snapshots WHERE account_number = ? " +
+                "AND snapshot_date < ? ORDER BY snapshot_date DESC LIMIT 1), 0) " +
+                "ON DUPLICATE KEY UPDATE balance = balance";
+        try (PreparedStatement stmt = connection.prepareStatement(insertQuery)) {
+            stmt.setString(1, account);
+            stmt.setDate(2, Date.valueOf(day));
+            stmt.setString(3, account);
+            stmt.setDate(4, Date.valueOf(day));
+            stmt.executeUpdate();
+        }
+
+        String updateQuery = "UPDATE balance_snapshots SET balance = balance + ? / 100 " +
+                "WHERE account_number = ? AND snapshot_date >= ?";
+        try (PreparedStatement stmt = connection.prepareStatement(updateQuery)) {
+            stmt.setLong(1, delta);
+            stmt.setString(2, account);
+            stmt.setDate(3, Date.valueOf(day));
+            stmt.executeUpdate();
+        }
+    }
+
+    private static boolean tryLock(Connection connection) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT GET_LOCK(?, 0)")) {
+            stmt.setString(1, LOCK_NAME);
+            ResultSet resultSet = stmt.executeQuery();
+            return resultSet.next() && resultSet.getInt(1) == 1;
+        }
+    }
+
+    private static void unlock(Connection connection) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT RELEASE_LOCK(?)")) {
+            stmt.setString(1, LOCK_NAME);
+            stmt.executeQuery();
+        }
+    }
+
+    private static final class Latest {
+        final LocalDate date;
+        final long cents;
+
+        Latest(LocalDate date, long cents) {
+            this.date = date;
+            this.cents = cents;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Recomputes every balance from the double-entry postings and reports the
+// accounts whose accounts.balance has drifted from the sum of their legs.
+// Balances and postings change in the same transaction, so each range query
+// reads a consistent snapshot and live traffic doesn't show up as drift.
+// verifyAll() splits the account number space into ranges and checks them
+// in parallel, one connection per range.
+class BalanceVerifier {
+    private static final int FETCH_SIZE = 1_000;
+
+    private static final String RANGE_QUERY =
+            "SELECT a.account_number, CAST(a.balance * 100 AS SIGNED) AS balance_cents, " +
+                    "CAST(COALESCE(SUM(p.amount), 0) * 100 AS SIGNED) AS posted_cents " +
+                    "FROM accounts a LEFT JOIN postings p ON p.account_number = a.account_number " +
+                    "WHERE a.account_number BETWEEN ? AND ? " +
+                    "GROUP BY a.account_number, a.balance";
+
+    private final ConnectionPool connectionPool;
+
+    public BalanceVerifier(ConnectionPool connectionPool) {
+        this.connectionPool = connectionPool;
+    }
+
+    // Checks accounts fromAccount..toAccount (inclusive)
+    public Report verify(String fromAccount, String toAccount) throws SQLException {
+        return connectionPool.getMetrics().time("BalanceVerifier.verify", () -> {
+            long start = System.nanoTime();
+            int checked = 0;
+            List<Drift> drifts = new ArrayList<>();
+
+            try (Connection connection = connectionPool.getConnection();
+                 PreparedStatement stmt = connection.prepareStatement(RANGE_QUERY,
+                         ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                stmt.setString(1, fromAccount);
+                stmt.setString(2, toAccount);
+                stmt.setFetchSize(FETCH_SIZE);
+
+                ResultSet resultSet = stmt.executeQuery();
+                while (resultSet.next()) {
+                    checked++;
+                    long balanceCents = resultSet.getLong("balance_cents");
+                    long postedCents = resultSet.getLong("posted_cents");
+                    if (balanceCents != postedCents) {
+                        drifts.add(new Drift(resultSet.getString("account_number"), Money.ofCents(balanceCents),
+                                Money.ofCents(postedCents)));
+                    }
+                }
+            }
+
+            return new Report(checked, drifts, System.nanoTime() - start);
+        });
+    }
+
+    // Splits 00000-99999 into `ranges` equal parts and checks them on up to
+    // `parallelism` connections at once
+    public Report verifyAll(int ranges, int parallelism) throws SQLException {
+        if (ranges <= 0 || parallelism <= 0) {
+            throw new IllegalArgumentException("Ranges and parallelism must be greater than zero.");
+        }
+
+        long start = System.nanoTime();
+        int span = (100_000 + ranges - 1) / ranges;
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(ranges, parallelism));
+        try {
+            List<Future<Report>> futures = new ArrayList<>();
+            for (int low = 0; low < 100_000; low += span) {
+                String fromAccount = String.format("%05d", low);
+                String toAccount = String.format("%05d", Math.min(99_999, low + span - 1));
+                futures.add(executor.submit(() -> verify(fromAccount, toAccount)));
+            }
+
+            int checked = 0;
+            List<Drift> drifts = new ArrayList<>();
+            for (Future<Report> future : futures) {
+                Report report = future.get();
+                checked += report.checked;
+                drifts.addAll(report.drifts);
+            }
+            return new Report(checked, drifts, System.nanoTime() - start);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while verifying balances.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            throw new IllegalStateException("Balance verification failed", cause);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    static final class Report {
+        private final int checked;
+        private final List<Drift> drifts;
+        private final long elapsedNanos;
+
+        Report(int checked, List<Drift> drifts, long elapsedNanos) {
+            this.checked = checked;
+            this.drifts = drifts;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public int getChecked() {
+            return checked;
+        }
+
+        public List<Drift> getDrifts() {
+            return drifts;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Checked %d accounts in %.1f ms, %d drifted", checked, elapsedNanos / 1_000_000.0,
+                    drifts.size());
+        }
+    }
+
+    static final class Drift {
+        private final String accountNumber;
+        private final Money balance;
+        private final Money postedBalance;
+
+        Drift(String accountNumber, Money balance, Money postedBalance) {
+            this.accountNumber = accountNumber;
+            this.balance = balance;
+            this.postedBalance = postedBalance;
+        }
+
+        public String getAccountNumber() {
+            return accountNumber;
+        }
+
+        public Money getBalance() {
+            return balance;
+        }
+
+        public Money getPostedBalance() {
+            return postedBalance;
+        }
+
+        @Override
+        public String toString() {
+            return accountNumber + ": balance $" + balance + ", postings sum to $" + postedBalance;
+        }
+    }
+}
@@ -0,0 +1,549 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Pattern;
+
+// HTTP/JSON front end for the services, so many clients can be served at
+// once instead of one console operator. The JDK server multiplexes every
+// open connection on a single selector thread and hands complete requests to
+// a ServiceExecutor, which runs them on virtual threads (or a fixed platform
+// pool) while capping how many are in the database at once.
+//
+//   POST /accounts                       {"name", "phone", "email", "pin"}
+//   GET  /accounts/{number}/balance      X-Account-Pin header; ?asOf=2024-05-01T12:00:00 for a past balance
+//   POST /accounts/{number}/deposit      {"amount"}
+//   POST /accounts/{number}/withdraw     {"amount"} + X-Account-Pin
+//   POST /accounts/{number}/transfer     {"to", "amount"} + X-Account-Pin
+//   GET  /accounts/{number}/history?limit=10   X-Account-Pin header
+//   POST /accounts/{number}/session      X-Account-Pin; returns a session token
+//   DELETE /accounts/{number}/session    ends the session
+//   GET  /accounts/{number}/rejections?limit=10   X-Account-Pin; ledger postings rejected after 202
+//
+// Anywhere X-Account-Pin is accepted, "Authorization: Bearer <token>" from
+// the session endpoint works too, so a client checks the PIN only once.
+// After repeated wrong PINs for an account, or from one client address, PIN
+// checks are refused with 429 and a Retry-After header for a while.
+//
+// deposit/withdraw/transfer accept an Idempotency-Key header (up to 64
+// characters, scoped to the account): a client that timed out can resend
+// the request with the same key and gets the original outcome instead of a
+// second posting. The same key with a different request is answered 409.
+// With a PostingLedger, keyed requests are refused with 501.
+//
+// With a PostingLedger, deposit/withdraw/transfer answer 202 with the ledger
+// sequence once the posting is durable on local disk; balances catch up when
+// the ledger applies it, and an overdrawing withdrawal is rejected then;
+// /rejections lists such postings by the sequence the client was given.
+// Amounts are decimal strings or numbers with at most two places, e.g. "25.50".
+class BankHttpServer {
+    private static final String PIN_HEADER = "X-Account-Pin";
+    private static final String IDEMPOTENCY_HEADER = "Idempotency-Key";
+    private static final String BEARER_PREFIX = "Bearer ";
+    private static final int MAX_BODY_BYTES = 16 * 1024;
+    private static final int DEFAULT_HISTORY_LIMIT = 10;
+    private static final int MAX_HISTORY_LIMIT = 1000;
+    private static final int ACCEPT_BACKLOG = 1024;
+
+    private static final Pattern PHONE_PATTERN = Pattern.compile("^\\d{9,10}$");
+    private static final Pattern EMAIL_PATTERN = Pattern.compile("^[A-Za-z0-9+_.-]+@(.+)\\.[A-Za-z]{2,}$");
+    private static final Pattern PIN_PATTERN = Pattern.compile("^\\d{4}$");
+
+    private final AccountService accountService;
+    private final TransactionService transactionService;
+    private final PostingLedger ledger;
+    private final LoginThrottle loginThrottle = new LoginThrottle();
+    private final HttpServer server;
+
+    public BankHttpServer(AccountService accountService, TransactionService transactionService, int port,
+                          ServiceExecutor executor) throws IOException {
+        this(accountService, transactionService, port, executor, null);
+    }
+
+    // ledger may be null to post straight to the database
+    public BankHttpServer(AccountService accountService, TransactionService transactionService, int port,
+                          ServiceExecutor executor, PostingLedger ledger) throws IOException {
+        this.accountService = accountService;
+        this.transactionService = transactionService;
+        this.ledger = ledger;
+
+        this.server = HttpServer.create(new InetSocketAddress(port), ACCEPT_BACKLOG);
+        server.setExecutor(executor);
+        server.createContext("/accounts", this::handle);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    // Stops accepting requests; the caller closes the executor
+    public void stop() {
+        server.stop(1);
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public LoginThrottle getLoginThrottle() {
+        return loginThrottle;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        int status;
+        String body;
+        try {
+            Response response = route(exchange);
+            status = response.status;
+            body = response.body;
+        } catch (RequestException e) {
+            status = e.status;
+            body = error(e.getMessage());
+        } catch (IllegalArgumentException e) {
+            // Malformed JSON or amount
+            status = 400;
+            body = error(e.getMessage());
+        } catch (SQLIntegrityConstraintViolationException e) {
+            status = 409;
+            body = error("An account with this phone number or email already exists.");
+        } catch (AccountNotFoundException e) {
+            status = 404;
+            body = error("Account not found.");
+        } catch (SQLException e) {
+            status = 500;
+            body = error("Database error.");
+        } catch (RuntimeException e) {
+            status = 500;
+            body = error("Internal error.");
+        }
+
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream stream = exchange.getResponseBody()) {
+            stream.write(bytes);
+        }
+    }
+
+    private Response route(HttpExchange exchange) throws IOException, SQLException, RequestException {
+        String method = exchange.getRequestMethod();
+        String[] path = exchange.getRequestURI().getPath().split("/");
+
+        // "/accounts" splits to ["", "accounts"]
+        if (path.length == 2) {
+            requireMethod(method, "POST");
+            return createAccount(readBody(exchange));
+        }
+        if (path.length != 4) {
+            throw new RequestException(404, "Not found.");
+        }
+
+        String accountNumber = path[2];
+        if (!Posting.isAccountNumber(accountNumber)) {
+            throw new RequestException(404, "Account not found.");
+        }
+        switch (path[3]) {
+            case "balance":
+                requireMethod(method, "GET");
+                return balance(accountNumber, exchange);
+            case "deposit":
+                requireMethod(method, "POST");
+                return deposit(accountNumber, exchange, readBody(exchange));
+            case "withdraw":
+                requireMethod(method, "POST");
+                return withdraw(accountNumber, exchange, readBody(exchange));
+            case "transfer":
+                requireMethod(method, "POST");
+                return transfer(accountNumber, exchange, readBody(exchange));
+            case "history":
+                requireMethod(method, "GET");
+                return history(accountNumber, exchange);
+            case "rejections":
+                requireMethod(method, "GET");
+                return rejections(accountNumber, exchange);
+            case "session":
+                if (method.equals("DELETE")) {
+                    return closeSession(accountNumber, exchange);
+                }
+                requireMethod(method, "POST");
+                return openSession(accountNumber, exchange);
+            default:
+                throw new RequestException(404, "Not found.");
+        }
+    }
+
+    private Response createAccount(Map<String, String> request) throws SQLException, RequestException {
+        String name = required(request, "name").trim();
+        String phone = required(request, "phone");
+        String email = required(request, "email");
+        String pin = required(request, "pin");
+
+        if (name.isEmpty()) {
+            throw new RequestException(400, "Name cannot be empty.");
+        }
+        if (!PHONE_PATTERN.matcher(phone).matches()) {
+            throw new RequestException(400, "Phone number must be 9-10 digits.");
+        }
+        if (!EMAIL_PATTERN.matcher(email).matches()) {
+            throw new RequestException(400, "Invalid email format.");
+        }
+        if (!PIN_PATTERN.matcher(pin).matches()) {
+            throw new RequestException(400, "PIN must be exactly 4 digits.");
+        }
+
+        String accountNumber = accountService.createAccount(name, phone, email, pin);
+        if (accountNumber == null) {
+            throw new RequestException(500, "Failed to create account.");
+        }
+        return new Response(201, "{\"accountNumber\":" + Json.quote(accountNumber) + "}");
+    }
+
+    private Response balance(String accountNumber, HttpExchange exchange) throws SQLException, RequestException {
+        authenticate(accountNumber, exchange);
+        LocalDateTime asOf = asOf(exchange.getRequestURI());
+        Money balance = asOf == null
+                ? accountService.getBalance(accountNumber)
+                : accountService.getBalanceAsOf(accountNumber, asOf);
+        return new Response(200, balanceBody(accountNumber, balance));
+    }
+
+    private Response deposit(String accountNumber, HttpExchange exchange, Map<String, String> request)
+            throws SQLException, RequestException {
+        String idempotencyKey = idempotencyKey(exchange);
+        Money amount = amount(request);
+        if (ledger != null) {
+            if (!accountService.accountExists(accountNumber)) {
+                throw new RequestException(404, "Account not found.");
+            }
+            return accepted(Posting.deposit(accountNumber, amount));
+        }
+        if (idempotencyKey != null) {
+            requireSuccess(transactionService.deposit(accountNumber, amount, idempotencyKey));
+        } else if (!transactionService.deposit(accountNumber, amount)) {
+            throw new RequestException(404, "Account not found.");
+        }
+        return new Response(200, balanceBody(accountNumber, accountService.getBalance(accountNumber)));
+    }
+
+    private Response withdraw(String accountNumber, HttpExchange exchange, Map<String, String> request)
+            throws SQLException, RequestException {
+        String idempotencyKey = idempotencyKey(exchange);
+        authenticate(accountNumber, exchange);
+        Money amount = amount(request);
+        if (ledger != null) {
+            return accepted(Posting.withdraw(accountNumber, amount));
+        }
+        if (idempotencyKey != null) {
+            requireSuccess(transactionService.withdraw(accountNumber, amount, idempotencyKey));
+        } else if (!transactionService.withdraw(accountNumber, amount)) {
+            throw new RequestException(422, "Insufficient balance.");
+        }
+        return new Response(200, balanceBody(accountNumber, accountService.getBalance(accountNumber)));
+    }
+
+    private Response transfer(String fromAccount, HttpExchange exchange, Map<String, String> request)
+            throws SQLException, RequestException {
+        String idempotencyKey = idempotencyKey(exchange);
+        authenticate(fromAccount, exchange);
+        String toAccount = required(request, "to");
+        Money amount = amount(request);
+
+        if (!Posting.isAccountNumber(toAccount)) {
+            throw new RequestException(404, "Recipient account not found.");
+        }
+        if (toAccount.equals(fromAccount)) {
+            throw new RequestException(400, "Cannot transfer to the same account.");
+        }
+        if (!accountService.accountExists(toAccount)) {
+            throw new RequestException(404, "Recipient account not found.");
+        }
+        if (ledger != null) {
+            return accepted(Posting.transfer(fromAccount, toAccount, amount));
+        }
+        if (idempotencyKey != null) {
+            requireSuccess(transactionService.transfer(fromAccount, toAccount, amount, idempotencyKey));
+        } else if (!transactionService.transfer(fromAccount, toAccount, amount)) {
+            throw new RequestException(422, "Insufficient balance.");
+        }
+        return new Response(200, balanceBody(fromAccount, accountService.getBalance(fromAccount)));
+    }
+
+    // Waits for the ledger's group commit to make the posting durable
+    private Response accepted(Posting posting) throws RequestException {
+        try {
+            long sequence = ledger.append(posting).get();
+            return new Response(202, "{\"sequence\":" + sequence + "}");
+        } catch (ExecutionException e) {
+            throw new RequestException(503, "Posting ledger unavailable.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RequestException(503, "Request interrupted.");
+        }
+    }
+
+    private Response history(String accountNumber, HttpExchange exchange) throws SQLException, RequestException {
+        authenticate(accountNumber, exchange);
+        int limit = limit(exchange.getRequestURI());
+
+        StringBuilder body = new StringBuilder("{\"accountNumber\":").append(Json.quote(accountNumber))
+                .append(",\"transactions\":[");
+        Iterator<Transaction> history = transactionService.historyIterator(accountNumber, limit);
+        for (int i = 0; i < limit && history.hasNext(); i++) {
+            Transaction transaction = history.next();
+            if (i > 0) {
+                body.append(',');
+            }
+            body.append("{\"id\":").append(transaction.getId())
+                    .append(",\"type\":").append(Json.quote(transaction.getType()))
+                    .append(",\"amount\":").append(Json.quote(transaction.getAmount().toString()))
+                    .append(",\"recipientAccount\":").append(Json.quote(transaction.getRecipientAccount()))
+                    .append(",\"timestamp\":").append(Json.quote(transaction.getTimestamp()))
+                    .append('}');
+        }
+        return new Response(200, body.append("]}").toString());
+    }
+
+    // Ledger postings that were answered 202 and then rejected or set aside
+    private Response rejections(String accountNumber, HttpExchange exchange) throws SQLException, RequestException {
+        if (ledger == null) {
+            throw new RequestException(404, "Not found.");
+        }
+        authenticate(accountNumber, exchange);
+        int limit = limit(exchange.getRequestURI());
+
+        StringBuilder body = new StringBuilder("{\"accountNumber\":").append(Json.quote(accountNumber))
+                .append(",\"rejections\":[");
+        boolean first = true;
+        for (PostingLedger.Rejection rejection : ledger.getRejections(accountNumber, limit)) {
+            if (!first) {
+                body.append(',');
+            }
+            first = false;
+            Posting posting = rejection.getPosting();
+            body.append("{\"sequence\":").append(rejection.getSequence())
+                    .append(",\"type\":").append(Json.quote(posting.getType()))
+                    .append(",\"amount\":").append(Json.quote(posting.getAmount().toString()))
+                    .append(",\"recipientAccount\":").append(Json.quote(posting.getRecipientAccount()))
+                    .append(",\"status\":").append(Json.quote(rejection.getStatus().name()))
+                    .append(",\"reason\":").append(Json.quote(rejection.getReason()))
+                    .append('}');
+        }
+        return new Response(200, body.append("]}").toString());
+    }
+
+    private Response openSession(String accountNumber, HttpExchange exchange) throws SQLException, RequestException {
+        String pin = exchange.getRequestHeaders().getFirst(PIN_HEADER);
+        String address = clientAddress(exchange);
+        requireNotThrottled(accountNumber, address, exchange);
+        String token = pin == null ? null : accountService.openSession(accountNumber, pin);
+        if (token == null) {
+            loginThrottle.recordFailure(accountNumber, address);
+            throw new RequestException(401, "Invalid account number or PIN.");
+        }
+        loginThrottle.recordSuccess(accountNumber);
+        return new Response(201, "{\"token\":" + Json.quote(token) + "}");
+    }
+
+    private Response closeSession(String accountNumber, HttpExchange exchange) throws SQLException, RequestException {
+        authenticate(accountNumber, exchange);
+        accountService.closeSession(bearerToken(exchange));
+        return new Response(200, "{}");
+    }
+
+    // Accepts a session token or the PIN header; unknown accounts and wrong
+    // PINs get the same answer, and repeated failures get 429 (LoginThrottle)
+    private void authenticate(String accountNumber, HttpExchange exchange) throws SQLException, RequestException {
+        String token = bearerToken(exchange);
+        if (token != null) {
+            if (!accountService.verifySession(accountNumber, token)) {
+                throw new RequestException(401, "Session expired or invalid.");
+            }
+            return;
+        }
+
+        String pin = exchange.getRequestHeaders().getFirst(PIN_HEADER);
+        String address = clientAddress(exchange);
+        requireNotThrottled(accountNumber, address, exchange);
+        if (pin == null || !accountService.verifyPin(accountNumber, pin)) {
+            loginThrottle.recordFailure(accountNumber, address);
+            throw new RequestException(401, "Invalid account number or PIN.");
+        }
+        loginThrottle.recordSuccess(accountNumber);
+    }
+
+    // Refuses PIN checks for an account or address locked out by LoginThrottle
+    private void requireNotThrottled(String accountNumber, String address, HttpExchange exchange)
+            throws RequestException {
+        long waitMillis = loginThrottle.retryAfterMillis(accountNumber, address);
+        if (waitMillis > 0) {
+            long seconds = (waitMillis + 999) / 1000;
+            exchange.getResponseHeaders().set("Retry-After", Long.toString(seconds));
+            throw new RequestException(429, "Too many failed PIN attempts. Try again in " + seconds + " seconds.");
+        }
+    }
+
+    private static String clientAddress(HttpExchange exchange) {
+        InetSocketAddress remote = exchange.getRemoteAddress();
+        return remote.getAddress() == null ? remote.getHostString() : remote.getAddress().getHostAddress();
+    }
+
+    // The ledger records postings without their keys, so it can't promise
+    // at-most-once; keyed requests are refused rather than silently unkeyed
+    private String idempotencyKey(HttpExchange exchange) throws RequestException {
+        String key = exchange.getRequestHeaders().getFirst(IDEMPOTENCY_HEADER);
+        if (key != null && (key.isEmpty() || key.length() > 64)) {
+            throw new RequestException(400, "Idempotency-Key must be 1-64 characters.");
+        }
+        if (key != null && ledger != null) {
+            throw new RequestException(501, "Idempotency-Key is not supported while the posting ledger is on.");
+        }
+        return key;
+    }
+
+    // Maps the outcome of a keyed posting, first time or replayed, to a response
+    private static void requireSuccess(PostingStatus status) throws RequestException {
+        switch (status) {
+            case SUCCESS:
+                return;
+            case ACCOUNT_NOT_FOUND:
+                throw new RequestException(404, "Account not found.");
+            case INSUFFICIENT_FUNDS:
+                throw new RequestException(422, "Insufficient balance.");
+            case INVALID_AMOUNT:
+                throw new RequestException(400, "Amount must be greater than zero.");
+            case IDEMPOTENCY_KEY_REUSED:
+                throw new RequestException(409, "Idempotency-Key was already used for a different request.");
+            default:
+                throw new RequestException(500, "Posting failed.");
+        }
+    }
+
+    private static String bearerToken(HttpExchange exchange) {
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if (authorization == null || !authorization.startsWith(BEARER_PREFIX)) {
+            return null;
+        }
+        return authorization.substring(BEARER_PREFIX.length()).trim();
+    }
+
+    private static Money amount(Map<String, String> request) throws RequestException {
+        Money amount = Money.parse(required(request, "amount"));
+        if (!amount.isPositive()) {
+            throw new RequestException(400, "Amount must be greater than zero.");
+        }
+        return amount;
+    }
+
+    private static int limit(URI uri) throws RequestException {
+        String value = queryParameter(uri, "limit");
+        if (value == null) {
+            return DEFAULT_HISTORY_LIMIT;
+        }
+
+        try {
+            int limit = Integer.parseInt(value);
+            if (limit > 0 && limit <= MAX_HISTORY_LIMIT) {
+                return limit;
+            }
+        } catch (NumberFormatException e) {
+            // Fall through to the error below
+        }
+        throw new RequestException(400, "limit must be between 1 and " + MAX_HISTORY_LIMIT + ".");
+    }
+
+    // A date-time, or a date meaning the end of that day; null if absent
+    private static LocalDateTime asOf(URI uri) throws RequestException {
+        String value = queryParameter(uri, "asOf");
+        if (value == null) {
+            return null;
+        }
+
+        try {
+            return value.contains("T") ? LocalDateTime.parse(value) : LocalDate.parse(value).atTime(LocalTime.MAX);
+        } catch (DateTimeParseException e) {
+            throw new RequestException(400, "asOf must look like 2024-05-01 or 2024-05-01T12:00:00.");
+        }
+    }
+
+    private static String queryParameter(URI uri, String name) {
+        String query = uri.getRawQuery();
+        if (query == null) {
+            return null;
+        }
+
+        for (String parameter : query.split("&")) {
+            if (parameter.startsWith(name + "=")) {
+                return parameter.substring(name.length() + 1);
+            }
+        }
+        return null;
+    }
+
+    private static String required(Map<String, String> request, String field) throws RequestException {
+        String value = request.get(field);
+        if (value == null) {
+            throw new RequestException(400, "Missing field: " + field);
+        }
+        return value;
+    }
+
+    private static void requireMethod(String method, String expected) throws RequestException {
+        if (!method.equals(expected)) {
+            throw new RequestException(405, "Method not allowed.");
+        }
+    }
+
+    private static Map<String, String> readBody(HttpExchange exchange) throws IOException, RequestException {
+        try (InputStream stream = exchange.getRequestBody()) {
+            byte[] bytes = stream.readNBytes(MAX_BODY_BYTES + 1);
+            if (bytes.length > MAX_BODY_BYTES) {
+                throw new RequestException(413, "Request body too large.");
+            }
+            return Json.parseObject(new String(bytes, StandardCharsets.UTF_8));
+        }
+    }
+
+    private static String balanceBody(String accountNumber, Money balance) {
+        return "{\"accountNumber\":" + Json.quote(accountNumber) + ",\"balance\":" + Json.quote(balance.toString()) + "}";
+    }
+
+    private static String error(String message) {
+        return "{\"error\":" + Json.quote(message) + "}";
+    }
+
+    private static final class Response {
+        final int status;
+        final String body;
+
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    // A request that fails with a specific HTTP status
+    private static final class RequestException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        RequestException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+}
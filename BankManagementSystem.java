@@ -1,22 +1,37 @@
 // BankManagementSystem.java - Main application class
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.Scanner;
 import java.util.InputMismatchException;
 import java.sql.*;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.Random;
 import java.util.regex.Pattern;
+import com.sun.net.httpserver.HttpServer;
+import javax.management.JMException;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class BankManagementSystem {
     private static Scanner scanner = new Scanner(System.in);
-    private static Connection connection;
+    private static ConnectionPool connectionPool;
+    private static HttpServer metricsServer;
+    private static BankingService bankingService;
+    private static ReplicaRouter replicaRouter;
 
     // Regular expressions for input validation
     private static final Pattern PHONE_PATTERN = Pattern.compile("^\\d{9,10}$");
     private static final Pattern EMAIL_PATTERN = Pattern.compile("^[A-Za-z0-9+_.-]+@(.+)\\.[A-Za-z]{2,}$");
+    private static final String DB_USER = "root";  // Change to your MySQL username
+    private static final String DB_PASSWORD = "";  // Change to your MySQL password
+    private static final int REPLICA_CONNECT_TIMEOUT_MILLIS = 1_000;
     private static final String ANSI_RESET = "\u001B[0m";
     private static final String ANSI_GREEN = "\u001B[32m";
     private static final String ANSI_RED = "\u001B[31m";
@@ -27,23 +42,48 @@ public class BankManagementSystem {
         try {
             printWelcomeBanner();
 
-            // Initialize database connection
-            connection = initializeDatabaseConnection();
-
-
-            // Run the application
-            runApplication();
+            // Initialize database connection pool
+            connectionPool = initializeConnectionPool();
+
+            // Bring the schema up to date
+            new SchemaMigrator(connectionPool).migrate();
+
+            // Expose operation metrics if asked to
+            startMetrics();
+
+            // Send reads to replicas if any are configured
+            replicaRouter = initializeReplicaRouter();
+
+            // Run the application, serve the HTTP API with --serve [port],
+            // export statements with --export-statements <yyyy-mm> [dir] [ranges],
+            // bring the balance snapshots up to date with --refresh-snapshots,
+            // or check balances against the postings with --verify-balances [ranges]
+            if (args.length > 0 && args[0].equals("--serve")) {
+                serve(args.length > 1 ? Integer.parseInt(args[1]) : 8080);
+            } else if (args.length > 0 && args[0].equals("--refresh-snapshots")) {
+                refreshSnapshots(new BalanceSnapshots(connectionPool));
+            } else if (args.length > 0 && args[0].equals("--verify-balances")) {
+                verifyBalances(args.length > 1 ? Integer.parseInt(args[1]) : 1);
+            } else if (args.length > 1 && args[0].equals("--export-statements")) {
+                exportStatements(YearMonth.parse(args[1]), Paths.get(args.length > 2 ? args[2] : "statements"),
+                        args.length > 3 ? Integer.parseInt(args[3]) : 1);
+            } else {
+                bankingService = new BankingService(connectionPool, ServiceExecutor.forPool(connectionPool, true),
+                        replicaRouter, initializeAccountCache());
+                runApplication();
+            }
 
         } catch (SQLException e) {
             printError("Database connection failed.");
             e.printStackTrace();
+        } catch (IOException e) {
+            printError("I/O error: " + e.getMessage());
         } finally {
             scanner.close();
-            try {
-                if (connection != null) connection.close();
-            } catch (SQLException e) {
-                e.printStackTrace();
-            }
+            if (bankingService != null) bankingService.close();
+            if (replicaRouter != null) replicaRouter.close();
+            if (metricsServer != null) metricsServer.stop(0);
+            if (connectionPool != null) connectionPool.close();
         }
     }
 
@@ -57,11 +97,15 @@ public class BankManagementSystem {
         System.out.println();
     }
 
-    private static Connection initializeDatabaseConnection() throws SQLException {
+    private static ConnectionPool initializeConnectionPool() throws SQLException {
         System.out.println("Connecting to database...");
-        String url = "jdbc:mysql://localhost:3306/bank_management";
-        String user = "root";  // Change to your MySQL username
-        String password = "";  // Change to your MySQL password
+        // Server-side prepared statements pair with the pool's per-connection statement cache
+        // useCursorFetch lets queries with a fetch size (statement export) stream in batches
+        // rewriteBatchedStatements sends a JDBC batch in one round trip instead of one per row;
+        // UPDATE batches go as a multi-statement and still report each statement's count
+        String url = "jdbc:mysql://localhost:3306/bank_management?useServerPrepStmts=true&useCursorFetch=true"
+                + "&rewriteBatchedStatements=true";
+        int poolSize = Integer.getInteger("bank.pool.size", 10);
 
         try {
             // Load MySQL JDBC driver
@@ -71,34 +115,190 @@ public class BankManagementSystem {
             throw new SQLException("JDBC Driver not found", e);
         }
 
-        return DriverManager.getConnection(url, user, password);
+        ConnectionPool pool = new ConnectionPool(url, DB_USER, DB_PASSWORD, poolSize);
+
+        // Borrow once up front so a bad URL or credentials fail at startup
+        try (Connection connection = pool.getConnection()) {
+            if (!connection.isValid(5)) {
+                throw new SQLException("Database connection is not valid.");
+            }
+            return pool;
+        } catch (SQLException e) {
+            pool.close();
+            throw e;
+        }
+    }
+
+    // -Dbank.replicas=<jdbc url>,<jdbc url> routes balance, existence and
+    // history reads to those replicas; -Dbank.replicas.maxLag=<seconds>
+    // (default 5) is the most lag tolerated before reads fall back to the
+    // primary, and -Dbank.replicas.selection=least-loaded replaces round-robin.
+    // A replica that can't hand out a connection within
+    // -Dbank.replicas.borrowTimeoutMillis (default 250) is skipped until its
+    // next lag check, so a saturated or hung replica costs a read a fraction
+    // of a second, not the primary pool's 30 s borrow timeout.
+    private static ReplicaRouter initializeReplicaRouter() {
+        String urls = System.getProperty("bank.replicas");
+        if (urls == null || urls.isBlank()) {
+            return null;
+        }
+
+        int poolSize = Integer.getInteger("bank.pool.size", 10);
+        long borrowTimeout = Long.getLong("bank.replicas.borrowTimeoutMillis", 250);
+        List<ConnectionPool> replicas = new ArrayList<>();
+        for (String url : urls.split(",")) {
+            replicas.add(new ConnectionPool(withConnectTimeout(url.trim(), REPLICA_CONNECT_TIMEOUT_MILLIS), DB_USER,
+                    DB_PASSWORD, poolSize, borrowTimeout, 30_000, 60_000, 64));
+        }
+        ReplicaRouter.Selection selection = "least-loaded".equals(System.getProperty("bank.replicas.selection"))
+                ? ReplicaRouter.Selection.LEAST_LOADED
+                : ReplicaRouter.Selection.ROUND_ROBIN;
+        long maxLag = Long.getLong("bank.replicas.maxLag", 5);
+
+        ReplicaRouter router = new ReplicaRouter(connectionPool, replicas, selection, maxLag);
+        System.out.println("Routing reads to " + replicas.size() + " replica(s), " + selection.name().toLowerCase()
+                + ", up to " + maxLag + "s behind.");
+        return router;
+    }
+
+    // Bounds how long opening a connection to an unreachable host can take,
+    // unless the URL sets its own connectTimeout
+    private static String withConnectTimeout(String url, int millis) {
+        if (url.contains("connectTimeout=")) {
+            return url;
+        }
+        return url + (url.contains("?") ? "&" : "?") + "connectTimeout=" + millis;
+    }
+
+    // -Dbank.cache.size=<entries> serves existence checks, balances and
+    // account holders from an in-process cache; -Dbank.cache.ttlMillis
+    // (default 1000) bounds how stale an entry written by another process
+    // can get. Off by default.
+    private static AccountCache initializeAccountCache() {
+        Integer size = Integer.getInteger("bank.cache.size");
+        if (size == null) {
+            return null;
+        }
+
+        long ttlMillis = Long.getLong("bank.cache.ttlMillis", 1_000);
+        System.out.println("Caching up to " + size + " accounts for " + ttlMillis + " ms.");
+        return new AccountCache(size, ttlMillis);
+    }
+
+    // -Dbank.metrics.enabled=true records metrics and publishes them over JMX;
+    // -Dbank.metrics.port=<port> also serves them as text at /metrics
+    private static void startMetrics() {
+        Integer port = Integer.getInteger("bank.metrics.port");
+        if (!Boolean.getBoolean("bank.metrics.enabled") && port == null) {
+            return;
+        }
+
+        BankMetrics metrics = connectionPool.getMetrics();
+        metrics.setEnabled(true);
+        try {
+            metrics.registerMBean("bank:type=Metrics");
+            if (port != null) {
+                metricsServer = metrics.startHttpEndpoint(port);
+                System.out.println(ANSI_GREEN + "Metrics available at http://localhost:" + port + "/metrics" + ANSI_RESET);
+            }
+        } catch (JMException | IOException e) {
+            printError("Could not publish metrics: " + e.getMessage());
+        }
+    }
+
+    // Runs headless: clients use the HTTP API instead of the console menu
+    private static void serve(int port) throws IOException, SQLException {
+        AccountService accountService = new AccountService(connectionPool, initializeAccountCache(), replicaRouter);
+        TransactionService transactionService = new TransactionService(connectionPool, accountService);
+        // -Dbank.threads=platform switches from virtual threads to a fixed pool
+        boolean virtualThreads = !"platform".equals(System.getProperty("bank.threads"));
+        ServiceExecutor executor = ServiceExecutor.forPool(connectionPool, virtualThreads);
+
+        // -Dbank.ledger.dir=<dir> acknowledges postings from a local write-ahead
+        // ledger and applies them to the database in the background
+        String ledgerDir = System.getProperty("bank.ledger.dir");
+        PostingLedger ledger = null;
+        if (ledgerDir != null) {
+            ledger = new PostingLedger(Paths.get(ledgerDir), connectionPool, transactionService);
+            // Clients look rejections up at /accounts/{number}/rejections; the log is for operators
+            ledger.setRejectionListener((posting, status) ->
+                    System.out.println("Posting ledger: " + status + " for " + posting));
+            ledger.start();
+            System.out.println("Posting ledger in " + ledgerDir + ": " + ledger);
+        }
+        BankHttpServer httpServer = new BankHttpServer(accountService, transactionService, port, executor, ledger);
+
+        // -Dbank.snapshots.interval=<seconds> keeps the balance snapshots current
+        Integer snapshotInterval = Integer.getInteger("bank.snapshots.interval");
+        ScheduledExecutorService snapshotRefresher = null;
+        if (snapshotInterval != null) {
+            BalanceSnapshots snapshots = new BalanceSnapshots(connectionPool);
+            snapshotRefresher = Executors.newSingleThreadScheduledExecutor();
+            snapshotRefresher.scheduleWithFixedDelay(() -> refreshSnapshots(snapshots), 0, snapshotInterval,
+                    TimeUnit.SECONDS);
+        }
+        ScheduledExecutorService startedRefresher = snapshotRefresher;
+
+        CountDownLatch stopped = new CountDownLatch(1);
+        PostingLedger startedLedger = ledger;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            httpServer.stop();
+            executor.close();
+            if (startedRefresher != null) {
+                startedRefresher.shutdownNow();
+            }
+            if (startedLedger != null) {
+                try {
+                    startedLedger.close();
+                } catch (IOException e) {
+                    printError("Could not close the posting ledger: " + e.getMessage());
+                }
+            }
+            stopped.countDown();
+        }));
+
+        httpServer.start();
+        System.out.println(ANSI_GREEN + "Serving the banking API on port " + httpServer.getPort() + ANSI_RESET);
+        System.out.println("Running requests on " + executor);
+        try {
+            stopped.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void refreshSnapshots(BalanceSnapshots snapshots) {
+        try {
+            int written = snapshots.refresh();
+            if (written > 0) {
+                System.out.println("Balance snapshots: " + written + " account-days updated.");
+            }
+        } catch (SQLException e) {
+            printError("Could not refresh balance snapshots: " + e.getMessage());
+        }
+    }
+
+    // One file pair per account range, exported in parallel up to the pool size
+    private static void exportStatements(YearMonth month, Path directory, int ranges) throws SQLException, IOException {
+        int parallelism = Math.min(ranges, Integer.getInteger("bank.pool.size", 10));
+        System.out.println("Exporting statements for " + month + " to " + directory + "...");
+        long rows = 0;
+        for (StatementExporter.ExportResult result :
+                new StatementExporter(connectionPool).exportAll(month, directory, ranges, parallelism)) {
+            System.out.println("  " + result);
+            rows += result.getRows();
+        }
+        System.out.println(ANSI_GREEN + "Exported " + rows + " statement lines." + ANSI_RESET);
     }
 
-    private static void setupDatabase(Connection connection) throws SQLException {
-        // Create tables if they don't exist
-        String createAccountsTable = "CREATE TABLE IF NOT EXISTS accounts (" +
-                "account_number VARCHAR(5) PRIMARY KEY," +
-                "name VARCHAR(100) NOT NULL," +
-                "phone VARCHAR(15) UNIQUE NOT NULL," +
-                "email VARCHAR(100) UNIQUE NOT NULL," +
-                "pin VARCHAR(64) NOT NULL," +  // Storing hashed pin
-                "balance DECIMAL(15,2) DEFAULT 0.00" +
-                ")";
-
-        String createTransactionsTable = "CREATE TABLE IF NOT EXISTS transactions (" +
-                "id INT AUTO_INCREMENT PRIMARY KEY," +
-                "account_number VARCHAR(5) NOT NULL," +
-                "transaction_type ENUM('DEPOSIT', 'WITHDRAW', 'TRANSFER') NOT NULL," +
-                "amount DECIMAL(15,2) NOT NULL," +
-                "recipient_account VARCHAR(5)," +
-                "timestamp TIMESTAMP DEFAULT CURRENT_TIMESTAMP," +
-                "FOREIGN KEY (account_number) REFERENCES accounts(account_number)" +
-                ")";
-
-        try (var statement = connection.createStatement()) {
-            statement.execute(createAccountsTable);
-            statement.execute(createTransactionsTable);
+    // Lists every account whose balance differs from the sum of its postings
+    private static void verifyBalances(int ranges) throws SQLException {
+        int parallelism = Math.min(ranges, Integer.getInteger("bank.pool.size", 10));
+        BalanceVerifier.Report report = new BalanceVerifier(connectionPool).verifyAll(ranges, parallelism);
+        for (BalanceVerifier.Drift drift : report.getDrifts()) {
+            printError("Balance drift on account " + drift);
         }
+        System.out.println((report.getDrifts().isEmpty() ? ANSI_GREEN : ANSI_RED) + report + ANSI_RESET);
     }
 
     private static void runApplication() {
@@ -220,44 +420,17 @@ public class BankManagementSystem {
         }
 
         try {
-            // Check if phone or email already exists
-            String checkQuery = "SELECT COUNT(*) FROM accounts WHERE phone = ? OR email = ?";
-            try (PreparedStatement checkStmt = connection.prepareStatement(checkQuery)) {
-                checkStmt.setString(1, phone);
-                checkStmt.setString(2, email);
-
-                ResultSet resultSet = checkStmt.executeQuery();
-                if (resultSet.next() && resultSet.getInt(1) > 0) {
-                    printError("An account with this phone number or email already exists.");
-                    handleProcessEnd();
-                    return;
-                }
-            }
+            String accountNumber = BankingService.await(bankingService.createAccount(name, phone, email, pin));
 
-            // Generate a unique 5-digit account number
-            String accountNumber = generateUniqueAccountNumber();
-
-            // Hash the PIN for security
-            String hashedPin = hashPin(pin);
-
-            // Insert new account
-            String insertQuery = "INSERT INTO accounts (account_number, name, phone, email, pin, balance) VALUES (?, ?, ?, ?, ?, 0.00)";
-            try (PreparedStatement insertStmt = connection.prepareStatement(insertQuery)) {
-                insertStmt.setString(1, accountNumber);
-                insertStmt.setString(2, name);
-                insertStmt.setString(3, phone);
-                insertStmt.setString(4, email);
-                insertStmt.setString(5, hashedPin);
-
-                int rowsAffected = insertStmt.executeUpdate();
-                if (rowsAffected > 0) {
-                    System.out.println(ANSI_GREEN + "Account created successfully!" + ANSI_RESET);
-                    System.out.println(ANSI_GREEN + "Your account number is: " + accountNumber + ANSI_RESET);
-                    System.out.println("Please keep your account number safe - you'll need it for all transactions.");
-                } else {
-                    printError("Failed to create account. Please try again.");
-                }
+            if (accountNumber != null) {
+                System.out.println(ANSI_GREEN + "Account created successfully!" + ANSI_RESET);
+                System.out.println(ANSI_GREEN + "Your account number is: " + accountNumber + ANSI_RESET);
+                System.out.println("Please keep your account number safe - you'll need it for all transactions.");
+            } else {
+                printError("Failed to create account. Please try again.");
             }
+        } catch (SQLIntegrityConstraintViolationException e) {
+            printError("An account with this phone number or email already exists.");
         } catch (SQLException e) {
             printError(e.getMessage());
         }
@@ -275,59 +448,30 @@ public class BankManagementSystem {
 
         try {
             // Check if account exists
-            if (!accountExists(accountNumber)) {
+            if (!BankingService.await(bankingService.accountExists(accountNumber))) {
                 printError("Account not found.");
                 handleProcessEnd();
                 return;
             }
 
             System.out.print("Enter amount to deposit: ");
-            double amount = getDoubleInput();
+            Money amount = getAmountInput();
 
-            if (amount <= 0) {
+            if (!amount.isPositive()) {
                 printError("Amount must be greater than zero.");
                 handleProcessEnd();
                 return;
             }
 
-            // Begin transaction
-            connection.setAutoCommit(false);
-
-            try {
-                // Get current balance
-                double currentBalance = getBalance(accountNumber);
-
-                // Update balance
-                double newBalance = currentBalance + amount;
-                boolean balanceUpdated = updateBalance(accountNumber, newBalance);
-
-                if (!balanceUpdated) {
-                    connection.rollback();
-                    printError("Deposit failed. Please try again.");
-                    handleProcessEnd();
-                    return;
-                }
-
-                // Record transaction
-                boolean transactionRecorded = recordTransaction(accountNumber, "DEPOSIT", amount, null);
-
-                if (!transactionRecorded) {
-                    connection.rollback();
-                    printError("Deposit failed. Please try again.");
-                    handleProcessEnd();
-                    return;
-                }
-
-                // Commit transaction
-                connection.commit();
-                System.out.println(ANSI_GREEN + "Deposit successful!" + ANSI_RESET);
-                System.out.println(ANSI_GREEN + "New balance: $" + String.format("%.2f", newBalance) + ANSI_RESET);
-            } catch (SQLException e) {
-                connection.rollback();
-                throw e;
-            } finally {
-                connection.setAutoCommit(true);
+            PostingStatus status = BankingService.await(bankingService.deposit(accountNumber, amount));
+            if (status != PostingStatus.SUCCESS) {
+                printError("Deposit failed. Please try again.");
+                handleProcessEnd();
+                return;
             }
+
+            System.out.println(ANSI_GREEN + "Deposit successful!" + ANSI_RESET);
+            System.out.println(ANSI_GREEN + "New balance: $" + BankingService.await(bankingService.getBalance(accountNumber)) + ANSI_RESET);
         } catch (SQLException e) {
             printError(e.getMessage());
         }
@@ -345,16 +489,16 @@ public class BankManagementSystem {
 
         try {
             // Check if account exists
-            if (!accountExists(accountNumber)) {
+            if (!BankingService.await(bankingService.accountExists(accountNumber))) {
                 printError("Account not found.");
                 handleProcessEnd();
                 return;
             }
 
             System.out.print("Enter amount to withdraw: ");
-            double amount = getDoubleInput();
+            Money amount = getAmountInput();
 
-            if (amount <= 0) {
+            if (!amount.isPositive()) {
                 printError("Amount must be greater than zero.");
                 handleProcessEnd();
                 return;
@@ -367,49 +511,21 @@ public class BankManagementSystem {
                 return;
             }
 
-            // Check if there's enough balance
-            double currentBalance = getBalance(accountNumber);
-            if (currentBalance < amount) {
-                printError("Insufficient balance. Your current balance is $" + String.format("%.2f", currentBalance));
+            // The balance check happens in the same statement as the debit
+            PostingStatus status = BankingService.await(bankingService.withdraw(accountNumber, amount));
+            if (status == PostingStatus.INSUFFICIENT_FUNDS) {
+                printError("Insufficient balance. Your current balance is $" + BankingService.await(bankingService.getBalance(accountNumber)));
                 handleProcessEnd();
                 return;
             }
-
-            // Begin transaction
-            connection.setAutoCommit(false);
-
-            try {
-                // Update balance
-                double newBalance = currentBalance - amount;
-                boolean balanceUpdated = updateBalance(accountNumber, newBalance);
-
-                if (!balanceUpdated) {
-                    connection.rollback();
-                    printError("Withdrawal failed. Please try again.");
-                    handleProcessEnd();
-                    return;
-                }
-
-                // Record transaction
-                boolean transactionRecorded = recordTransaction(accountNumber, "WITHDRAW", amount, null);
-
-                if (!transactionRecorded) {
-                    connection.rollback();
-                    printError("Withdrawal failed. Please try again.");
-                    handleProcessEnd();
-                    return;
-                }
-
-                // Commit transaction
-                connection.commit();
-                System.out.println(ANSI_GREEN + "Withdrawal successful!" + ANSI_RESET);
-                System.out.println(ANSI_GREEN + "New balance: $" + String.format("%.2f", newBalance) + ANSI_RESET);
-            } catch (SQLException e) {
-                connection.rollback();
-                throw e;
-            } finally {
-                connection.setAutoCommit(true);
+            if (status != PostingStatus.SUCCESS) {
+                printError("Withdrawal failed. Please try again.");
+                handleProcessEnd();
+                return;
             }
+
+            System.out.println(ANSI_GREEN + "Withdrawal successful!" + ANSI_RESET);
+            System.out.println(ANSI_GREEN + "New balance: $" + BankingService.await(bankingService.getBalance(accountNumber)) + ANSI_RESET);
         } catch (SQLException e) {
             printError(e.getMessage());
         }
@@ -427,7 +543,7 @@ public class BankManagementSystem {
 
         try {
             // Check if account exists
-            if (!accountExists(fromAccount)) {
+            if (!BankingService.await(bankingService.accountExists(fromAccount))) {
                 printError("Account not found.");
                 handleProcessEnd();
                 return;
@@ -437,7 +553,7 @@ public class BankManagementSystem {
             String toAccount = scanner.nextLine();
 
             // Check if recipient account exists
-            if (!accountExists(toAccount)) {
+            if (!BankingService.await(bankingService.accountExists(toAccount))) {
                 printError("Recipient account not found.");
                 handleProcessEnd();
                 return;
@@ -451,9 +567,9 @@ public class BankManagementSystem {
             }
 
             System.out.print("Enter amount to transfer: ");
-            double amount = getDoubleInput();
+            Money amount = getAmountInput();
 
-            if (amount <= 0) {
+            if (!amount.isPositive()) {
                 printError("Amount must be greater than zero.");
                 handleProcessEnd();
                 return;
@@ -466,61 +582,20 @@ public class BankManagementSystem {
                 return;
             }
 
-            // Check if there's enough balance
-            double currentBalance = getBalance(fromAccount);
-            if (currentBalance < amount) {
-                printError("Insufficient balance. Your current balance is $" + String.format("%.2f", currentBalance));
+            PostingStatus status = BankingService.await(bankingService.transfer(fromAccount, toAccount, amount));
+            if (status == PostingStatus.INSUFFICIENT_FUNDS) {
+                printError("Insufficient balance. Your current balance is $" + BankingService.await(bankingService.getBalance(fromAccount)));
                 handleProcessEnd();
                 return;
             }
-
-            // Begin transaction
-            connection.setAutoCommit(false);
-
-            try {
-                // Update sender's balance
-                double newSenderBalance = currentBalance - amount;
-                boolean senderBalanceUpdated = updateBalance(fromAccount, newSenderBalance);
-
-                if (!senderBalanceUpdated) {
-                    connection.rollback();
-                    printError("Transfer failed. Please try again.");
-                    handleProcessEnd();
-                    return;
-                }
-
-                // Update recipient's balance
-                double recipientBalance = getBalance(toAccount);
-                double newRecipientBalance = recipientBalance + amount;
-                boolean recipientBalanceUpdated = updateBalance(toAccount, newRecipientBalance);
-
-                if (!recipientBalanceUpdated) {
-                    connection.rollback();
-                    printError("Transfer failed. Please try again.");
-                    handleProcessEnd();
-                    return;
-                }
-
-                // Record transaction
-                boolean transactionRecorded = recordTransaction(fromAccount, "TRANSFER", amount, toAccount);
-
-                if (!transactionRecorded) {
-                    connection.rollback();
-                    printError("Transfer failed. Please try again.");
-                    handleProcessEnd();
-                    return;
-                }
-
-                // Commit transaction
-                connection.commit();
-                System.out.println(ANSI_GREEN + "Transfer successful!" + ANSI_RESET);
-                System.out.println(ANSI_GREEN + "New balance: $" + String.format("%.2f", newSenderBalance) + ANSI_RESET);
-            } catch (SQLException e) {
-                connection.rollback();
-                throw e;
-            } finally {
-                connection.setAutoCommit(true);
+            if (status != PostingStatus.SUCCESS) {
+                printError("Transfer failed. Please try again.");
+                handleProcessEnd();
+                return;
             }
+
+            System.out.println(ANSI_GREEN + "Transfer successful!" + ANSI_RESET);
+            System.out.println(ANSI_GREEN + "New balance: $" + BankingService.await(bankingService.getBalance(fromAccount)) + ANSI_RESET);
         } catch (SQLException e) {
             printError(e.getMessage());
         }
@@ -538,7 +613,7 @@ public class BankManagementSystem {
 
         try {
             // Check if account exists
-            if (!accountExists(accountNumber)) {
+            if (!BankingService.await(bankingService.accountExists(accountNumber))) {
                 printError("Account not found.");
                 handleProcessEnd();
                 return;
@@ -551,25 +626,16 @@ public class BankManagementSystem {
                 return;
             }
 
-            // Get account information
-            String query = "SELECT name, balance FROM accounts WHERE account_number = ?";
-            try (PreparedStatement stmt = connection.prepareStatement(query)) {
-                stmt.setString(1, accountNumber);
-
-                ResultSet resultSet = stmt.executeQuery();
-                if (resultSet.next()) {
-                    String name = resultSet.getString("name");
-                    double balance = resultSet.getDouble("balance");
-
-                    System.out.println(ANSI_CYAN + "\n╔══════════════════════════════════════════════════╗");
-                    System.out.println("║                ACCOUNT DETAILS                   ║");
-                    System.out.println("╚══════════════════════════════════════════════════╝" + ANSI_RESET);
-                    System.out.println("Account Holder: " + name);
-                    System.out.println("Account Number: " + accountNumber);
-                    System.out.println(ANSI_GREEN + "Current Balance: $" + String.format("%.2f", balance) + ANSI_RESET);
-                }
-            }
+            // Get account information; both lookups are in flight at once
+            CompletableFuture<String> name = bankingService.getAccountHolder(accountNumber);
+            CompletableFuture<Money> balance = bankingService.getBalance(accountNumber);
 
+            System.out.println(ANSI_CYAN + "\n╔══════════════════════════════════════════════════╗");
+            System.out.println("║                ACCOUNT DETAILS                   ║");
+            System.out.println("╚══════════════════════════════════════════════════╝" + ANSI_RESET);
+            System.out.println("Account Holder: " + BankingService.await(name));
+            System.out.println("Account Number: " + accountNumber);
+            System.out.println(ANSI_GREEN + "Current Balance: $" + BankingService.await(balance) + ANSI_RESET);
         } catch (SQLException e) {
             printError(e.getMessage());
         }
@@ -587,7 +653,7 @@ public class BankManagementSystem {
 
         try {
             // Check if account exists
-            if (!accountExists(accountNumber)) {
+            if (!BankingService.await(bankingService.accountExists(accountNumber))) {
                 printError("Account not found.");
                 handleProcessEnd();
                 return;
@@ -601,37 +667,24 @@ public class BankManagementSystem {
             }
 
             // Retrieve transactions
-            String query = "SELECT transaction_type, amount, recipient_account, timestamp FROM transactions " +
-                    "WHERE account_number = ? ORDER BY timestamp DESC LIMIT 10";
-            try (PreparedStatement stmt = connection.prepareStatement(query)) {
-                stmt.setString(1, accountNumber);
-
-                ResultSet resultSet = stmt.executeQuery();
-                boolean hasTransactions = false;
-
-                System.out.println("\nRecent Transactions:");
-                System.out.println("----------------------------------------------------------");
-                System.out.printf("%-10s %-12s %-15s %-20s\n", "Type", "Amount", "Recipient", "Date/Time");
-                System.out.println("----------------------------------------------------------");
-
-                while (resultSet.next()) {
-                    hasTransactions = true;
-                    String type = resultSet.getString("transaction_type");
-                    double amount = resultSet.getDouble("amount");
-                    String recipient = resultSet.getString("recipient_account");
-                    Timestamp timestamp = resultSet.getTimestamp("timestamp");
-
-                    System.out.printf("%-10s $%-11.2f %-15s %-20s\n",
-                            type, amount, (recipient != null ? recipient : "N/A"), timestamp);
-                }
+            List<Transaction> transactions = BankingService.await(bankingService.getRecentTransactions(accountNumber, 10));
 
-                System.out.println("----------------------------------------------------------");
+            System.out.println("\nRecent Transactions:");
+            System.out.println("----------------------------------------------------------");
+            System.out.printf("%-10s %-12s %-15s %-20s\n", "Type", "Amount", "Recipient", "Date/Time");
+            System.out.println("----------------------------------------------------------");
 
-                if (!hasTransactions) {
-                    System.out.println("No transaction history found for this account.");
-                }
+            for (Transaction transaction : transactions) {
+                String recipient = transaction.getRecipientAccount();
+                System.out.printf("%-10s $%-11s %-15s %-20s\n", transaction.getType(), transaction.getAmount(),
+                        (recipient != null ? recipient : "N/A"), transaction.getTimestamp());
             }
 
+            System.out.println("----------------------------------------------------------");
+
+            if (transactions.isEmpty()) {
+                System.out.println("No transaction history found for this account.");
+            }
         } catch (SQLException e) {
             printError(e.getMessage());
         }
@@ -639,7 +692,9 @@ public class BankManagementSystem {
         handleProcessEnd();
     }
 
+    // Fetches the stored hash once and checks every attempt locally
     private static boolean verifyPin(String accountNumber) throws SQLException {
+        String storedHashedPin = BankingService.await(bankingService.getPinHash(accountNumber));
         int attempts = 0;
         boolean verified = false;
 
@@ -647,22 +702,14 @@ public class BankManagementSystem {
             System.out.print("Enter your 4-digit PIN: ");
             String pin = scanner.nextLine();
 
-            String hashedPin = hashPin(pin);
-            String query = "SELECT COUNT(*) FROM accounts WHERE account_number = ? AND pin = ?";
-            try (PreparedStatement stmt = connection.prepareStatement(query)) {
-                stmt.setString(1, accountNumber);
-                stmt.setString(2, hashedPin);
-
-                ResultSet resultSet = stmt.executeQuery();
-                if (resultSet.next() && resultSet.getInt(1) > 0) {
-                    verified = true;
+            if (bankingService.matchesPin(accountNumber, pin, storedHashedPin)) {
+                verified = true;
+            } else {
+                attempts++;
+                if (attempts < 2) {
+                    printError("Incorrect PIN. Please try again.");
                 } else {
-                    attempts++;
-                    if (attempts < 2) {
-                        printError("Incorrect PIN. Please try again.");
-                    } else {
-                        printError("Multiple incorrect PIN attempts. Access denied.");
-                    }
+                    printError("Multiple incorrect PIN attempts. Access denied.");
                 }
             }
         }
@@ -670,112 +717,16 @@ public class BankManagementSystem {
         return verified;
     }
 
-    private static String generateUniqueAccountNumber() throws SQLException {
-        Random random = new Random();
-        boolean isUnique = false;
-        String accountNumber = "";
-
-        while (!isUnique) {
-            // Generate a random 5-digit number
-            int randomNum = 10000 + random.nextInt(90000);
-            accountNumber = String.valueOf(randomNum);
-
-            // Check if it's unique
-            String query = "SELECT COUNT(*) FROM accounts WHERE account_number = ?";
-            try (PreparedStatement stmt = connection.prepareStatement(query)) {
-                stmt.setString(1, accountNumber);
-
-                ResultSet resultSet = stmt.executeQuery();
-                if (resultSet.next() && resultSet.getInt(1) == 0) {
-                    isUnique = true;
-                }
-            }
-        }
-
-        return accountNumber;
-    }
-
-    private static String hashPin(String pin) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            byte[] hashedBytes = md.digest(pin.getBytes());
-
-            StringBuilder hexString = new StringBuilder();
-            for (byte b : hashedBytes) {
-                hexString.append(String.format("%02x", b));
-            }
-
-            return hexString.toString();
-        } catch (NoSuchAlgorithmException e) {
-            // Fall back to simple method if SHA-256 is not available
-            return "HASH_" + pin;
-        }
-    }
-
-    private static boolean accountExists(String accountNumber) throws SQLException {
-        String query = "SELECT COUNT(*) FROM accounts WHERE account_number = ?";
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
-            stmt.setString(1, accountNumber);
-
-            ResultSet resultSet = stmt.executeQuery();
-            if (resultSet.next()) {
-                return resultSet.getInt(1) > 0;
-            }
-        }
-
-        return false;
-    }
-
-    private static double getBalance(String accountNumber) throws SQLException {
-        String query = "SELECT balance FROM accounts WHERE account_number = ?";
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
-            stmt.setString(1, accountNumber);
-
-            ResultSet resultSet = stmt.executeQuery();
-            if (resultSet.next()) {
-                return resultSet.getDouble("balance");
-            }
-        }
-
-        throw new SQLException("Account not found.");
-    }
-
-    private static boolean updateBalance(String accountNumber, double newBalance) throws SQLException {
-        String query = "UPDATE accounts SET balance = ? WHERE account_number = ?";
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
-            stmt.setDouble(1, newBalance);
-            stmt.setString(2, accountNumber);
-
-            int rowsAffected = stmt.executeUpdate();
-            return rowsAffected > 0;
-        }
-    }
-
-    private static boolean recordTransaction(String accountNumber, String type, double amount, String recipientAccount) throws SQLException {
-        String query = "INSERT INTO transactions (account_number, transaction_type, amount, recipient_account) VALUES (?, ?, ?, ?)";
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
-            stmt.setString(1, accountNumber);
-            stmt.setString(2, type);
-            stmt.setDouble(3, amount);
-            stmt.setString(4, recipientAccount);
-
-            int rowsAffected = stmt.executeUpdate();
-            return rowsAffected > 0;
-        }
-    }
-
-    private static double getDoubleInput() {
-        double value = 0;
+    private static Money getAmountInput() {
+        Money value = Money.ZERO;
         boolean validInput = false;
 
         while (!validInput) {
             try {
-                value = scanner.nextDouble();
-                scanner.nextLine(); // Clear the buffer
+                value = Money.parse(scanner.nextLine());
                 validInput = true;
-            } catch (InputMismatchException e) {
-                scanner.nextLine(); // Clear the buffer
-                printError("Invalid input. Please enter a valid amount: ");
+            } catch (NumberFormatException e) {
+                printError("Invalid input. Please enter a valid amount with at most two decimal places: ");
             }
         }
 
@@ -0,0 +1,306 @@
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Per-operation metrics for the services: call and error counts, rollbacks,
+// database round trips and a latency histogram. The connection pool owns one
+// instance and its connection and statement proxies report round trips and
+// rollbacks against whichever operation is running on the current thread.
+//
+// Disabled by default; while disabled, time() just runs the operation and
+// the proxies skip recording, so the cost is a volatile read.
+//
+// Metrics can be read through JMX (registerMBean) or as plain text in the
+// Prometheus exposition format (render, or startHttpEndpoint for /metrics).
+class BankMetrics implements DynamicMBean {
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    private static final String[] QUANTILE_LABELS = {"0.5", "0.9", "0.99", "0.999"};
+
+    private final ConnectionPool connectionPool;
+    private final Map<String, OperationStats> operations = new ConcurrentHashMap<>();
+    private final ThreadLocal<OperationStats> current = new ThreadLocal<>();
+    private volatile boolean enabled;
+
+    // An operation being timed; may throw like the service method it wraps
+    interface Timed<T> {
+        T call() throws SQLException;
+    }
+
+    BankMetrics(ConnectionPool connectionPool) {
+        this.connectionPool = connectionPool;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    // Runs the operation and records its latency, outcome, and the round
+    // trips and rollbacks it caused
+    <T> T time(String operation, Timed<T> body) throws SQLException {
+        if (!enabled) {
+            return body.call();
+        }
+
+        OperationStats stats = operations.computeIfAbsent(operation, OperationStats::new);
+        OperationStats outer = current.get();
+        current.set(stats);
+
+        boolean failed = true;
+        long start = System.nanoTime();
+        try {
+            T result = body.call();
+            failed = false;
+            return result;
+        } finally {
+            stats.recordCall(System.nanoTime() - start, failed);
+            if (outer == null) {
+                current.remove();
+            } else {
+                current.set(outer);
+            }
+        }
+    }
+
+    void recordRoundTrip() {
+        if (enabled) {
+            OperationStats stats = current.get();
+            if (stats != null) {
+                stats.recordRoundTrip();
+            }
+        }
+    }
+
+    void recordRollback() {
+        if (enabled) {
+            OperationStats stats = current.get();
+            if (stats != null) {
+                stats.recordRollback();
+            }
+        }
+    }
+
+    public OperationStats getOperation(String operation) {
+        return operations.get(operation);
+    }
+
+    // Sorted by operation name
+    public Map<String, OperationStats> getOperations() {
+        return new TreeMap<>(operations);
+    }
+
+    public void reset() {
+        operations.clear();
+    }
+
+    // Prometheus text exposition format
+    public String render() {
+        StringBuilder out = new StringBuilder();
+        Map<String, OperationStats> snapshot = getOperations();
+        Map<String, LatencyHistogram> latencies = new TreeMap<>();
+        for (OperationStats stats : snapshot.values()) {
+            latencies.put(stats.getName(), stats.getLatency());
+        }
+
+        counter(out, "bank_operation_calls_total", "Calls per service operation", snapshot, OperationStats::getCount);
+        counter(out, "bank_operation_errors_total", "Calls that ended in an exception", snapshot,
+                OperationStats::getErrors);
+        counter(out, "bank_operation_rollbacks_total", "Transaction rollbacks issued by the operation", snapshot,
+                OperationStats::getRollbacks);
+        counter(out, "bank_operation_round_trips_total", "Database round trips issued by the operation", snapshot,
+                OperationStats::getRoundTrips);
+
+        out.append("# HELP bank_operation_latency_seconds Operation latency\n");
+        out.append("# TYPE bank_operation_latency_seconds summary\n");
+        for (Map.Entry<String, LatencyHistogram> entry : latencies.entrySet()) {
+            LatencyHistogram latency = entry.getValue();
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                out.append("bank_operation_latency_seconds{operation=\"").append(entry.getKey())
+                        .append("\",quantile=\"").append(QUANTILE_LABELS[i]).append("\"} ")
+                        .append(latency.getValueAtPercentile(PERCENTILES[i]) / 1_000_000_000.0).append('\n');
+            }
+            out.append("bank_operation_latency_seconds_sum{operation=\"").append(entry.getKey()).append("\"} ")
+                    .append(latency.getMean() * latency.getCount() / 1_000_000_000.0).append('\n');
+            out.append("bank_operation_latency_seconds_count{operation=\"").append(entry.getKey()).append("\"} ")
+                    .append(latency.getCount()).append('\n');
+        }
+
+        gauge(out, "bank_pool_active_connections", connectionPool.getActiveCount());
+        gauge(out, "bank_pool_idle_connections", connectionPool.getIdleCount());
+        gauge(out, "bank_pool_max_connections", connectionPool.getMaxSize());
+        gauge(out, "bank_pool_borrow_timeouts", connectionPool.getTimeoutCount());
+        gauge(out, "bank_pool_leaked_connections", connectionPool.getLeakCount());
+        gauge(out, "bank_pool_average_wait_seconds", connectionPool.getAverageWaitMillis() / 1000);
+        gauge(out, "bank_pool_statement_cache_hit_ratio", connectionPool.getStatementCacheHitRate());
+        return out.toString();
+    }
+
+    private interface Counter {
+        long get(OperationStats stats);
+    }
+
+    private static void counter(StringBuilder out, String name, String help, Map<String, OperationStats> snapshot,
+                                Counter counter) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" counter\n");
+        for (OperationStats stats : snapshot.values()) {
+            out.append(name).append("{operation=\"").append(stats.getName()).append("\"} ")
+                    .append(counter.get(stats)).append('\n');
+        }
+    }
+
+    private static void gauge(StringBuilder out, String name, double value) {
+        out.append("# TYPE ").append(name).append(" gauge\n");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    // Serves render() at http://<host>:<port>/metrics; stop the returned server on shutdown
+    public HttpServer startHttpEndpoint(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body = render().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream stream = exchange.getResponseBody()) {
+                stream.write(body);
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    public ObjectName registerMBean(String name) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName(name);
+        if (server.isRegistered(objectName)) {
+            server.unregisterMBean(objectName);
+        }
+        server.registerMBean(this, objectName);
+        return objectName;
+    }
+
+    // JMX attributes are "Enabled" plus "<operation>.<metric>" for every
+    // operation seen so far, e.g. "TransactionService.transfer.p99Millis"
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        if (attribute.equals("Enabled")) {
+            return enabled;
+        }
+
+        int split = attribute.lastIndexOf('.');
+        OperationStats stats = split > 0 ? operations.get(attribute.substring(0, split)) : null;
+        if (stats == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+
+        switch (attribute.substring(split + 1)) {
+            case "count":
+                return stats.getCount();
+            case "errors":
+                return stats.getErrors();
+            case "rollbacks":
+                return stats.getRollbacks();
+            case "roundTrips":
+                return stats.getRoundTrips();
+            case "p50Millis":
+                return stats.getLatency().getValueAtPercentileMillis(50);
+            case "p99Millis":
+                return stats.getLatency().getValueAtPercentileMillis(99);
+            case "p999Millis":
+                return stats.getLatency().getValueAtPercentileMillis(99.9);
+            case "maxMillis":
+                return stats.getLatency().getMax() / 1_000_000.0;
+            default:
+                throw new AttributeNotFoundException(attribute);
+        }
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        if (!attribute.getName().equals("Enabled")) {
+            throw new AttributeNotFoundException(attribute.getName());
+        }
+        setEnabled((Boolean) attribute.getValue());
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            try {
+                list.add(new Attribute(attribute, getAttribute(attribute)));
+            } catch (AttributeNotFoundException e) {
+                // Leave unknown attributes out, as the DynamicMBean contract allows
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        AttributeList set = new AttributeList();
+        for (Attribute attribute : attributes.asList()) {
+            try {
+                setAttribute(attribute);
+                set.add(attribute);
+            } catch (AttributeNotFoundException e) {
+                // Read-only or unknown
+            }
+        }
+        return set;
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        if (actionName.equals("reset")) {
+            reset();
+            return null;
+        }
+        throw new ReflectionException(new NoSuchMethodException(actionName), "Unknown operation: " + actionName);
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        attributes.add(new MBeanAttributeInfo("Enabled", "boolean", "Whether metrics are recorded", true, true, true));
+        for (String operation : getOperations().keySet()) {
+            for (String metric : new String[] {"count", "errors", "rollbacks", "roundTrips"}) {
+                attributes.add(new MBeanAttributeInfo(operation + "." + metric, "long", metric, true, false, false));
+            }
+            for (String metric : new String[] {"p50Millis", "p99Millis", "p999Millis", "maxMillis"}) {
+                attributes.add(new MBeanAttributeInfo(operation + "." + metric, "double", metric, true, false, false));
+            }
+        }
+
+        MBeanOperationInfo reset = new MBeanOperationInfo("reset", "Clear all recorded metrics",
+                new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION);
+        return new MBeanInfo(getClass().getName(), "Banking operation metrics",
+                attributes.toArray(new MBeanAttributeInfo[0]), null,
+                new MBeanOperationInfo[] {reset}, null);
+    }
+}
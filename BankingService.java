@@ -0,0 +1,155 @@
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// One entry point to the banking services for front ends. Every call returns
+// a CompletableFuture straight away, so a caller can keep many operations in
+// flight and only wait where it needs an answer.
+//
+// Deposits, withdrawals and transfers go through a GroupCommitter: postings
+// issued back to back (by one caller or many) share a database transaction
+// and a single commit, and each still gets its own PostingStatus. Reads run
+// on a ServiceExecutor sized to the connection pool.
+class BankingService implements AutoCloseable {
+    private final AccountService accountService;
+    private final TransactionService transactionService;
+    private final ServiceExecutor executor;
+    private final GroupCommitter groupCommitter;
+
+    public BankingService(ConnectionPool connectionPool) {
+        this(connectionPool, ServiceExecutor.forPool(connectionPool, true));
+    }
+
+    // Takes ownership of the executor; close() shuts it down
+    public BankingService(ConnectionPool connectionPool, ServiceExecutor executor) {
+        this(connectionPool, executor, null);
+    }
+
+    // replicaRouter may be null to read from the primary only
+    public BankingService(ConnectionPool connectionPool, ServiceExecutor executor, ReplicaRouter replicaRouter) {
+        this(connectionPool, executor, replicaRouter, null);
+    }
+
+    // accountCache may be null to read every lookup from the database
+    public BankingService(ConnectionPool connectionPool, ServiceExecutor executor, ReplicaRouter replicaRouter,
+                          AccountCache accountCache) {
+        this.accountService = new AccountService(connectionPool, accountCache, replicaRouter);
+        this.transactionService = new TransactionService(connectionPool, accountService);
+        this.executor = executor;
+        this.groupCommitter = new GroupCommitter(connectionPool, transactionService);
+    }
+
+    public CompletableFuture<PostingStatus> submit(Posting posting) {
+        return groupCommitter.submit(posting);
+    }
+
+    // Posts at most once per idempotency key (see TransactionService.post);
+    // keyed postings commit on their own rather than in a group
+    public CompletableFuture<PostingStatus> submit(Posting posting, String idempotencyKey) {
+        return executor.submit(() -> transactionService.post(posting, idempotencyKey));
+    }
+
+    public CompletableFuture<PostingStatus> deposit(String accountNumber, Money amount) {
+        return groupCommitter.deposit(accountNumber, amount);
+    }
+
+    public CompletableFuture<PostingStatus> withdraw(String accountNumber, Money amount) {
+        return groupCommitter.withdraw(accountNumber, amount);
+    }
+
+    public CompletableFuture<PostingStatus> transfer(String fromAccount, String toAccount, Money amount) {
+        return groupCommitter.transfer(fromAccount, toAccount, amount);
+    }
+
+    // Completes exceptionally with AccountNotFoundException for an unknown account
+    public CompletableFuture<Money> getBalance(String accountNumber) {
+        return executor.submit(() -> accountService.getBalance(accountNumber));
+    }
+
+    public CompletableFuture<Boolean> accountExists(String accountNumber) {
+        return executor.submit(() -> accountService.accountExists(accountNumber));
+    }
+
+    // Null if there is no such account
+    public CompletableFuture<String> getAccountHolder(String accountNumber) {
+        return executor.submit(() -> accountService.getAccountHolder(accountNumber));
+    }
+
+    public CompletableFuture<Boolean> verifyPin(String accountNumber, String pin) {
+        return executor.submit(() -> accountService.verifyPin(accountNumber, pin));
+    }
+
+    // Null if there is no such account; check attempts with matchesPin
+    public CompletableFuture<String> getPinHash(String accountNumber) {
+        return executor.submit(() -> accountService.getPinHash(accountNumber));
+    }
+
+    // Checks a PIN against a hash from getPinHash without a database round
+    // trip; a right PIN with an old-style hash is rehashed in the background
+    public boolean matchesPin(String accountNumber, String pin, String storedHashedPin) {
+        if (!accountService.matchesPin(pin, storedHashedPin)) {
+            return false;
+        }
+        if (accountService.needsPinRehash(storedHashedPin)) {
+            executor.submit(() -> {
+                accountService.upgradePinHash(accountNumber, pin, storedHashedPin);
+                return null;
+            });
+        }
+        return true;
+    }
+
+    // A phone or email that is already registered completes exceptionally
+    // with SQLIntegrityConstraintViolationException
+    public CompletableFuture<String> createAccount(String name, String phone, String email, String pin) {
+        return executor.submit(() -> accountService.createAccount(name, phone, email, pin));
+    }
+
+    // The newest `limit` transactions, newest first
+    public CompletableFuture<List<Transaction>> getRecentTransactions(String accountNumber, int limit) {
+        return executor.submit(() -> {
+            try (Stream<Transaction> history = transactionService.streamHistory(accountNumber, limit)) {
+                return history.limit(limit).collect(Collectors.toList());
+            }
+        });
+    }
+
+    public AccountService getAccountService() {
+        return accountService;
+    }
+
+    public TransactionService getTransactionService() {
+        return transactionService;
+    }
+
+    // Waits for a result, rethrowing a database failure as the SQLException it was
+    static <T> T await(CompletableFuture<T> future) throws SQLException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new SQLException("Operation failed", cause);
+        }
+    }
+
+    // Commits postings already submitted, then stops the executor
+    @Override
+    public void close() {
+        groupCommitter.close();
+        executor.close();
+    }
+
+    @Override
+    public String toString() {
+        return "BankingService [" + executor + ", " + groupCommitter + "]";
+    }
+}
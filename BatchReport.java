@@ -0,0 +1,48 @@
+import java.util.Arrays;
+
+// Per-item outcome of TransactionService.postBatch, in submission order
+class BatchReport {
+    private final PostingStatus[] statuses;
+
+    BatchReport(PostingStatus[] statuses) {
+        this.statuses = statuses;
+    }
+
+    public int size() {
+        return statuses.length;
+    }
+
+    public PostingStatus getStatus(int index) {
+        return statuses[index];
+    }
+
+    public int count(PostingStatus status) {
+        int count = 0;
+        for (PostingStatus s : statuses) {
+            if (s == status) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public boolean allSucceeded() {
+        return count(PostingStatus.SUCCESS) == statuses.length;
+    }
+
+    public PostingStatus[] toArray() {
+        return Arrays.copyOf(statuses, statuses.length);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder summary = new StringBuilder("BatchReport [total=" + statuses.length);
+        for (PostingStatus status : PostingStatus.values()) {
+            int count = count(status);
+            if (count > 0) {
+                summary.append(", ").append(status.name().toLowerCase()).append('=').append(count);
+            }
+        }
+        return summary.append(']').toString();
+    }
+}
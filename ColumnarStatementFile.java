@@ -0,0 +1,357 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// A compact column-oriented statement file, in the spirit of Parquet but
+// with no dependencies. Rows are written in row groups; within a group each
+// column is stored on its own so similar values sit together and encode
+// small:
+//
+//   "BSTC" version
+//   row group*   int rows, then per column: int byte length, bytes
+//   footer       long offset of each row group, int groups, long rows, "BSTC"
+//
+// Columns, in order: statement account (run-length encoded), id and
+// timestamp in epoch millis (zigzag varint deltas), type (one byte), signed
+// amount in cents (zigzag varint), counterparty (length byte, -1 for none).
+// Only one row group is held in memory at a time, both writing and reading.
+class ColumnarStatementFile {
+    static final String EXTENSION = ".bstc";
+
+    private static final byte[] MAGIC = "BSTC".getBytes(StandardCharsets.US_ASCII);
+    private static final byte VERSION = 1;
+    private static final int COLUMNS = 6;
+    private static final int DEFAULT_ROW_GROUP_SIZE = 16_384;
+    private static final String[] TYPES = {"DEPOSIT", "WITHDRAW", "TRANSFER"};
+
+    private ColumnarStatementFile() {
+    }
+
+    static final class Writer implements AutoCloseable {
+        private final FileChannel channel;
+        private final int rowGroupSize;
+        private final ColumnBuffer accounts = new ColumnBuffer();
+        private final ColumnBuffer ids = new ColumnBuffer();
+        private final ColumnBuffer timestamps = new ColumnBuffer();
+        private final ColumnBuffer types = new ColumnBuffer();
+        private final ColumnBuffer amounts = new ColumnBuffer();
+        private final ColumnBuffer counterparties = new ColumnBuffer();
+        private long[] groupOffsets = new long[16];
+        private int groups;
+        private long rows;
+
+        private int groupRows;
+        private String runAccount;
+        private int runLength;
+        private long previousId;
+        private long previousTimestamp;
+
+        Writer(Path path) throws IOException {
+            this(path, DEFAULT_ROW_GROUP_SIZE);
+        }
+
+        Writer(Path path, int rowGroupSize) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            this.rowGroupSize = rowGroupSize;
+
+            ByteBuffer header = ByteBuffer.allocate(MAGIC.length + 1).put(MAGIC).put(VERSION);
+            header.flip();
+            writeFully(header);
+        }
+
+        void write(String account, long id, long timestampMillis, String type, long signedCents,
+                   String counterparty) throws IOException {
+            if (account.equals(runAccount)) {
+                runLength++;
+            } else {
+                endRun();
+                runAccount = account;
+                runLength = 1;
+            }
+
+            ids.putZigZag(id - previousId);
+            timestamps.putZigZag(timestampMillis - previousTimestamp);
+            previousId = id;
+            previousTimestamp = timestampMillis;
+            types.put((byte) typeCode(type));
+            amounts.putZigZag(signedCents);
+            counterparties.putString(counterparty);
+
+            rows++;
+            if (++groupRows == rowGroupSize) {
+                flushGroup();
+            }
+        }
+
+        long getRowCount() {
+            return rows;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flushGroup();
+
+                ByteBuffer footer = ByteBuffer.allocate(groups * 8 + 4 + 8 + MAGIC.length);
+                for (int i = 0; i < groups; i++) {
+                    footer.putLong(groupOffsets[i]);
+                }
+                footer.putInt(groups).putLong(rows).put(MAGIC);
+                footer.flip();
+                writeFully(footer);
+            } finally {
+                channel.close();
+            }
+        }
+
+        private void endRun() {
+            if (runLength > 0) {
+                accounts.putVarLong(runLength);
+                accounts.putString(runAccount);
+            }
+        }
+
+        private void flushGroup() throws IOException {
+            if (groupRows == 0) {
+                return;
+            }
+            endRun();
+
+            if (groups == groupOffsets.length) {
+                groupOffsets = Arrays.copyOf(groupOffsets, groups * 2);
+            }
+            groupOffsets[groups++] = channel.position();
+
+            ColumnBuffer[] columns = {accounts, ids, timestamps, types, amounts, counterparties};
+            ByteBuffer[] buffers = new ByteBuffer[1 + COLUMNS * 2];
+            buffers[0] = ByteBuffer.allocate(4).putInt(0, groupRows);
+            for (int i = 0; i < COLUMNS; i++) {
+                buffers[1 + i * 2] = ByteBuffer.allocate(4).putInt(0, columns[i].size);
+                buffers[2 + i * 2] = ByteBuffer.wrap(columns[i].bytes, 0, columns[i].size);
+            }
+            // One gathering write per group
+            long remaining = 0;
+            for (ByteBuffer buffer : buffers) {
+                remaining += buffer.remaining();
+            }
+            while (remaining > 0) {
+                remaining -= channel.write(buffers);
+            }
+
+            for (ColumnBuffer column : columns) {
+                column.size = 0;
+            }
+            groupRows = 0;
+            runAccount = null;
+            runLength = 0;
+            previousId = 0;
+            previousTimestamp = 0;
+        }
+
+        private void writeFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    // Reads rows back in file order, one row group at a time
+    static final class Reader implements AutoCloseable {
+        private final FileChannel channel;
+        private final long[] groupOffsets;
+        private final long rows;
+        private int nextGroup;
+
+        private int groupRows;
+        private int position;
+        private ByteBuffer accounts;
+        private ByteBuffer ids;
+        private ByteBuffer timestamps;
+        private ByteBuffer types;
+        private ByteBuffer amounts;
+        private ByteBuffer counterparties;
+        private String runAccount;
+        private long runRemaining;
+
+        // Fields of the current row, valid after next() returns true
+        String account;
+        long id;
+        long timestampMillis;
+        String type;
+        long signedCents;
+        String counterparty;
+
+        Reader(Path path) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.READ);
+
+            ByteBuffer header = readAt(0, MAGIC.length + 1);
+            byte[] magic = new byte[MAGIC.length];
+            header.get(magic);
+            if (!Arrays.equals(magic, MAGIC) || header.get() != VERSION) {
+                throw new IOException(path + " is not a statement file");
+            }
+
+            long size = channel.size();
+            ByteBuffer tail = readAt(size - 4 - 8 - MAGIC.length, 4 + 8 + MAGIC.length);
+            int groups = tail.getInt();
+            this.rows = tail.getLong();
+            ByteBuffer offsets = readAt(size - 4 - 8 - MAGIC.length - groups * 8L, groups * 8);
+            this.groupOffsets = new long[groups];
+            for (int i = 0; i < groups; i++) {
+                groupOffsets[i] = offsets.getLong();
+            }
+        }
+
+        long getRowCount() {
+            return rows;
+        }
+
+        boolean next() throws IOException {
+            if (position == groupRows) {
+                if (nextGroup == groupOffsets.length) {
+                    return false;
+                }
+                loadGroup(groupOffsets[nextGroup++]);
+            }
+
+            if (runRemaining == 0) {
+                runRemaining = getVarLong(accounts);
+                runAccount = getString(accounts);
+            }
+            runRemaining--;
+            account = runAccount;
+            id += getZigZag(ids);
+            timestampMillis += getZigZag(timestamps);
+            type = TYPES[types.get()];
+            signedCents = getZigZag(amounts);
+            counterparty = getString(counterparties);
+            position++;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        private void loadGroup(long offset) throws IOException {
+            groupRows = readAt(offset, 4).getInt();
+            long columnOffset = offset + 4;
+            ByteBuffer[] columns = new ByteBuffer[COLUMNS];
+            for (int i = 0; i < COLUMNS; i++) {
+                int length = readAt(columnOffset, 4).getInt();
+                columns[i] = readAt(columnOffset + 4, length);
+                columnOffset += 4 + length;
+            }
+            accounts = columns[0];
+            ids = columns[1];
+            timestamps = columns[2];
+            types = columns[3];
+            amounts = columns[4];
+            counterparties = columns[5];
+
+            position = 0;
+            runRemaining = 0;
+            id = 0;
+            timestampMillis = 0;
+        }
+
+        private ByteBuffer readAt(long offset, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw new EOFException("Statement file ends early");
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    private static int typeCode(String type) {
+        for (int i = 0; i < TYPES.length; i++) {
+            if (TYPES[i].equals(type)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown transaction type: " + type);
+    }
+
+    private static long getVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    private static long getZigZag(ByteBuffer buffer) {
+        long value = getVarLong(buffer);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.get();
+        if (length < 0) {
+            return null;
+        }
+        byte[] value = new byte[length];
+        buffer.get(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    // Growable byte array for one column of the current row group
+    private static final class ColumnBuffer {
+        byte[] bytes = new byte[4096];
+        int size;
+
+        void put(byte value) {
+            ensure(1);
+            bytes[size++] = value;
+        }
+
+        void putVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7fL) != 0) {
+                bytes[size++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        void putZigZag(long value) {
+            putVarLong((value << 1) ^ (value >> 63));
+        }
+
+        // Account numbers are VARCHAR(5), so a length byte is plenty
+        void putString(String value) {
+            if (value == null) {
+                put((byte) -1);
+                return;
+            }
+            byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+            if (encoded.length > Byte.MAX_VALUE) {
+                throw new IllegalArgumentException("Value too long for a statement column: " + value);
+            }
+            ensure(1 + encoded.length);
+            bytes[size++] = (byte) encoded.length;
+            System.arraycopy(encoded, 0, bytes, size, encoded.length);
+            size += encoded.length;
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+            }
+        }
+    }
+}
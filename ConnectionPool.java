@@ -0,0 +1,441 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Bounded JDBC connection pool. Connections handed out by getConnection() are
+// proxies whose close() returns the physical connection to the pool.
+//
+// A connection held longer than the leak threshold is counted (getLeakCount,
+// bank_pool_leaked_connections) and logged with its borrowing thread. The
+// borrow site's stack trace is only captured, and logged, with
+// -Dbank.pool.leakTrace=true, since capturing it costs every borrow.
+class ConnectionPool implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(ConnectionPool.class.getName());
+    private static final boolean LEAK_TRACE = Boolean.getBoolean("bank.pool.leakTrace");
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int maxSize;
+    private final long borrowTimeoutMillis;
+    private final long validateAfterIdleMillis;
+    private final long leakThresholdMillis;
+    private final int statementCacheSize;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final Deque<PooledConnection> idle = new ArrayDeque<>();
+    private final Map<PooledConnection, Boolean> borrowed = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService leakDetector;
+    private int totalConnections;
+    private boolean closed;
+
+    // Metrics
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong validationFailures = new AtomicLong();
+    private final AtomicLong leakCount = new AtomicLong();
+    private final LongAdder statementCacheHits = new LongAdder();
+    private final LongAdder statementCacheMisses = new LongAdder();
+    private final LongAdder statementCacheEvictions = new LongAdder();
+    private final BankMetrics metrics;
+
+    public ConnectionPool(String url, String user, String password, int maxSize) {
+        this(url, user, password, maxSize, 30_000, 30_000, 60_000, 64);
+    }
+
+    public ConnectionPool(String url, String user, String password, int maxSize,
+                          long borrowTimeoutMillis, long validateAfterIdleMillis, long leakThresholdMillis,
+                          int statementCacheSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Pool size must be greater than zero.");
+        }
+
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.maxSize = maxSize;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.validateAfterIdleMillis = validateAfterIdleMillis;
+        this.leakThresholdMillis = leakThresholdMillis;
+        this.statementCacheSize = statementCacheSize;
+        this.metrics = new BankMetrics(this);
+
+        this.leakDetector = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "connection-pool-leak-detector");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1_000, leakThresholdMillis / 2);
+        leakDetector.scheduleAtFixedRate(this::detectLeaks, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        PooledConnection pooled = acquire(start);
+        long waited = System.nanoTime() - start;
+
+        borrowCount.incrementAndGet();
+        totalWaitNanos.addAndGet(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+
+        pooled.borrowedAt = System.currentTimeMillis();
+        pooled.borrower = Thread.currentThread().getName();
+        pooled.borrowSite = LEAK_TRACE && leakThresholdMillis > 0 ? new Exception("Connection borrowed here") : null;
+        borrowed.put(pooled, Boolean.TRUE);
+
+        return pooled.newHandle();
+    }
+
+    private PooledConnection acquire(long start) throws SQLException {
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(borrowTimeoutMillis);
+
+        while (true) {
+            PooledConnection candidate = null;
+            boolean create = false;
+
+            lock.lock();
+            try {
+                while (!closed && idle.isEmpty() && totalConnections >= maxSize) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        timeoutCount.incrementAndGet();
+                        throw new SQLException("Timed out waiting for a database connection.");
+                    }
+                    try {
+                        available.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Interrupted while waiting for a database connection.", e);
+                    }
+                }
+
+                if (closed) {
+                    throw new SQLException("Connection pool is closed.");
+                }
+
+                if (!idle.isEmpty()) {
+                    candidate = idle.pollFirst();
+                } else {
+                    totalConnections++;
+                    create = true;
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if (create) {
+                try {
+                    return new PooledConnection(DriverManager.getConnection(url, user, password));
+                } catch (SQLException | RuntimeException e) {
+                    discard(null);
+                    throw e;
+                }
+            }
+
+            // Validate connections that have been sitting idle for a while
+            if (isUsable(candidate)) {
+                return candidate;
+            }
+
+            validationFailures.incrementAndGet();
+            discard(candidate);
+        }
+    }
+
+    private boolean isUsable(PooledConnection pooled) {
+        long idleFor = System.currentTimeMillis() - pooled.returnedAt;
+        if (idleFor < validateAfterIdleMillis) {
+            return true;
+        }
+
+        try {
+            return pooled.physical.isValid(5);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void release(PooledConnection pooled) {
+        borrowed.remove(pooled);
+
+        // Reset per-borrower state so one flow can't leak into the next
+        boolean healthy;
+        try {
+            if (!pooled.physical.getAutoCommit()) {
+                pooled.physical.rollback();
+                pooled.physical.setAutoCommit(true);
+            }
+            healthy = !pooled.physical.isClosed();
+        } catch (SQLException e) {
+            healthy = false;
+        }
+
+        if (!healthy) {
+            discard(pooled);
+            return;
+        }
+
+        pooled.returnedAt = System.currentTimeMillis();
+        pooled.borrowSite = null;
+        pooled.borrower = null;
+
+        lock.lock();
+        try {
+            if (closed) {
+                closeQuietly(pooled);
+                totalConnections--;
+                return;
+            }
+            idle.addFirst(pooled);
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void discard(PooledConnection pooled) {
+        if (pooled != null) {
+            closeQuietly(pooled);
+        }
+
+        lock.lock();
+        try {
+            totalConnections--;
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void detectLeaks() {
+        if (leakThresholdMillis <= 0) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        for (PooledConnection pooled : borrowed.keySet()) {
+            if (!pooled.leakReported && now - pooled.borrowedAt > leakThresholdMillis) {
+                pooled.leakReported = true;
+                leakCount.incrementAndGet();
+                LOGGER.log(Level.WARNING, "Possible connection leak - connection held by " + pooled.borrower
+                        + " for " + (now - pooled.borrowedAt) + " ms", pooled.borrowSite);
+            }
+        }
+    }
+
+    // Operation metrics for the services using this pool; disabled until enabled
+    public BankMetrics getMetrics() {
+        return metrics;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getActiveCount() {
+        return borrowed.size();
+    }
+
+    public int getIdleCount() {
+        lock.lock();
+        try {
+            return idle.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getTotalCount() {
+        lock.lock();
+        try {
+            return totalConnections;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+    public double getAverageWaitMillis() {
+        long count = borrowCount.get();
+        return count == 0 ? 0 : totalWaitNanos.get() / 1_000_000.0 / count;
+    }
+
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1_000_000.0;
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    public long getValidationFailureCount() {
+        return validationFailures.get();
+    }
+
+    public long getLeakCount() {
+        return leakCount.get();
+    }
+
+    public long getStatementCacheHits() {
+        return statementCacheHits.sum();
+    }
+
+    public long getStatementCacheMisses() {
+        return statementCacheMisses.sum();
+    }
+
+    public long getStatementCacheEvictions() {
+        return statementCacheEvictions.sum();
+    }
+
+    public double getStatementCacheHitRate() {
+        long hits = getStatementCacheHits();
+        long total = hits + getStatementCacheMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionPool [active=" + getActiveCount() + ", idle=" + getIdleCount() + ", max=" + maxSize
+                + ", borrows=" + getBorrowCount() + ", avgWaitMs=" + String.format("%.3f", getAverageWaitMillis())
+                + ", maxWaitMs=" + String.format("%.3f", getMaxWaitMillis()) + ", timeouts=" + getTimeoutCount()
+                + ", leaks=" + getLeakCount() + ", stmtCacheHitRate=" + String.format("%.3f", getStatementCacheHitRate())
+                + "]";
+    }
+
+    @Override
+    public void close() {
+        leakDetector.shutdownNow();
+
+        lock.lock();
+        try {
+            closed = true;
+            for (PooledConnection pooled : idle) {
+                closeQuietly(pooled);
+                totalConnections--;
+            }
+            idle.clear();
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void closeQuietly(PooledConnection pooled) {
+        try {
+            pooled.physical.close();
+        } catch (SQLException e) {
+            // Nothing useful to do with a connection we are throwing away
+        }
+    }
+
+    // A physical connection plus its bookkeeping while it is checked out
+    private final class PooledConnection {
+        final Connection physical;
+        final StatementCache statementCache;
+        volatile long borrowedAt;
+        volatile long returnedAt = System.currentTimeMillis();
+        volatile String borrower;
+        volatile Exception borrowSite;
+        volatile boolean leakReported;
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+            this.statementCache = statementCacheSize > 0
+                    ? new StatementCache(physical, statementCacheSize, statementCacheHits, statementCacheMisses,
+                            statementCacheEvictions, metrics)
+                    : null;
+        }
+
+        Connection newHandle() {
+            leakReported = false;
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[] { Connection.class }, new Handle(this));
+        }
+    }
+
+    // Logical connection given to callers; close() hands it back exactly once
+    private final class Handle implements InvocationHandler {
+        private PooledConnection pooled;
+
+        Handle(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+
+            if (name.equals("close")) {
+                if (pooled != null) {
+                    PooledConnection returning = pooled;
+                    pooled = null;
+                    release(returning);
+                }
+                return null;
+            }
+            if (name.equals("isClosed")) {
+                return pooled == null || pooled.physical.isClosed();
+            }
+            if (name.equals("unwrap") && args[0] == Connection.class) {
+                return proxy;
+            }
+            if (name.equals("equals")) {
+                return proxy == args[0];
+            }
+            if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            }
+            if (name.equals("toString")) {
+                return "PooledConnection[" + (pooled == null ? "closed" : pooled.physical) + "]";
+            }
+            if (pooled == null) {
+                throw new SQLException("Connection has already been returned to the pool.");
+            }
+            if (name.equals("commit")) {
+                metrics.recordRoundTrip();
+            } else if (name.equals("rollback")) {
+                metrics.recordRoundTrip();
+                metrics.recordRollback();
+            }
+            if (name.equals("prepareStatement") && pooled.statementCache != null) {
+                if (args.length == 1) {
+                    return pooled.statementCache.prepare((String) args[0], Statement.NO_GENERATED_KEYS);
+                }
+                if (args.length == 2 && args[1] instanceof Integer) {
+                    return pooled.statementCache.prepare((String) args[0], (Integer) args[1]);
+                }
+            }
+
+            try {
+                return method.invoke(pooled.physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
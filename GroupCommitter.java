@@ -0,0 +1,243 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Group commit for deposits, withdrawals and transfers. Each TransactionService
+// call runs and commits its own database transaction, so every one waits for
+// its own log flush. Postings submitted here are collected for up to
+// maxWaitMicros (or until maxGroupSize are waiting), applied together through
+// TransactionService.applyChunk and committed once, and each caller still
+// gets its own PostingStatus.
+//
+// If a group fails for a reason other than a deadlock or lock timeout, its
+// postings are retried one by one so a single bad posting only fails itself.
+// With maxWaitMicros = 0 a committer takes whatever has queued while the
+// previous group was committing, which already batches under load. A group
+// that fails unexpectedly completes its futures (FAILED, or exceptionally)
+// and the committer carries on with the next one.
+class GroupCommitter implements AutoCloseable {
+    private static final int DEFAULT_MAX_GROUP_SIZE = 256;
+    private static final long DEFAULT_MAX_WAIT_MICROS = 200;
+    private static final long IDLE_POLL_MILLIS = 100;
+
+    private final ConnectionPool connectionPool;
+    private final TransactionService transactionService;
+    private final BankMetrics metrics;
+    private final int maxGroupSize;
+    private final long maxWaitNanos;
+    private final BlockingQueue<Submission> queue = new LinkedBlockingQueue<>();
+    private final Thread[] committers;
+
+    private final LongAdder groups = new LongAdder();
+    private final LongAdder postings = new LongAdder();
+    private final LongAdder splitGroups = new LongAdder();
+
+    private volatile boolean closed;
+
+    public GroupCommitter(ConnectionPool connectionPool, TransactionService transactionService) {
+        this(connectionPool, transactionService, DEFAULT_MAX_GROUP_SIZE, DEFAULT_MAX_WAIT_MICROS, 1);
+    }
+
+    // Several committers keep more than one group in flight; each holds a
+    // pooled connection while it commits
+    public GroupCommitter(ConnectionPool connectionPool, TransactionService transactionService, int maxGroupSize,
+                          long maxWaitMicros, int committerCount) {
+        if (maxGroupSize <= 0 || committerCount <= 0 || maxWaitMicros < 0) {
+            throw new IllegalArgumentException("Group size and committer count must be positive and the wait non-negative.");
+        }
+        this.connectionPool = connectionPool;
+        this.transactionService = transactionService;
+        this.metrics = connectionPool.getMetrics();
+        this.maxGroupSize = maxGroupSize;
+        this.maxWaitNanos = TimeUnit.MICROSECONDS.toNanos(maxWaitMicros);
+
+        this.committers = new Thread[committerCount];
+        for (int i = 0; i < committerCount; i++) {
+            committers[i] = new Thread(this::commitLoop, "group-committer-" + i);
+            committers[i].setDaemon(true);
+            committers[i].start();
+        }
+    }
+
+    public CompletableFuture<PostingStatus> submit(Posting posting) {
+        CompletableFuture<PostingStatus> future = new CompletableFuture<>();
+        if (closed) {
+            future.complete(PostingStatus.FAILED);
+            return future;
+        }
+        queue.add(new Submission(posting, future));
+        return future;
+    }
+
+    public CompletableFuture<PostingStatus> deposit(String accountNumber, Money amount) {
+        return submit(Posting.deposit(accountNumber, amount));
+    }
+
+    public CompletableFuture<PostingStatus> withdraw(String accountNumber, Money amount) {
+        return submit(Posting.withdraw(accountNumber, amount));
+    }
+
+    public CompletableFuture<PostingStatus> transfer(String fromAccount, String toAccount, Money amount) {
+        return submit(Posting.transfer(fromAccount, toAccount, amount));
+    }
+
+    public long getGroupCount() {
+        return groups.sum();
+    }
+
+    public long getPostingCount() {
+        return postings.sum();
+    }
+
+    // Groups that failed as a whole and were retried one posting at a time
+    public long getSplitGroupCount() {
+        return splitGroups.sum();
+    }
+
+    public double getAverageGroupSize() {
+        long count = groups.sum();
+        return count == 0 ? 0 : (double) postings.sum() / count;
+    }
+
+    // Commits everything already submitted, then stops the committers
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            for (Thread committer : committers) {
+                committer.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Anything left arrived after the committers stopped
+        Submission submission;
+        while ((submission = queue.poll()) != null) {
+            submission.future.complete(PostingStatus.FAILED);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("GroupCommitter [groups=%d, postings=%d, averageGroupSize=%.1f, splitGroups=%d]",
+                getGroupCount(), getPostingCount(), getAverageGroupSize(), getSplitGroupCount());
+    }
+
+    private void commitLoop() {
+        List<Submission> group = new ArrayList<>(maxGroupSize);
+        while (true) {
+            try {
+                if (!collect(group)) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            try {
+                commit(group);
+            } catch (Throwable t) {
+                // Never leave a caller waiting, and keep committing later groups
+                for (Submission submission : group) {
+                    submission.future.completeExceptionally(t);
+                }
+            }
+            group.clear();
+        }
+    }
+
+    // Waits for the first submission, then gathers more until the group is
+    // full or the window has passed; false once closed and drained
+    private boolean collect(List<Submission> group) throws InterruptedException {
+        Submission first = null;
+        while (first == null) {
+            if (closed) {
+                first = queue.poll();
+                if (first == null) {
+                    return false;
+                }
+            } else {
+                first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+        group.add(first);
+
+        long deadline = System.nanoTime() + maxWaitNanos;
+        while (group.size() < maxGroupSize) {
+            queue.drainTo(group, maxGroupSize - group.size());
+            long remaining = deadline - System.nanoTime();
+            if (group.size() >= maxGroupSize || remaining <= 0 || closed) {
+                break;
+            }
+            Submission next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                break;
+            }
+            group.add(next);
+        }
+        return true;
+    }
+
+    private void commit(List<Submission> group) {
+        List<Posting> chunk = new ArrayList<>(group.size());
+        for (Submission submission : group) {
+            chunk.add(submission.posting);
+        }
+        PostingStatus[] statuses = new PostingStatus[chunk.size()];
+        // Statuses before this index are final
+        int[] settled = {0};
+
+        try {
+            metrics.time("GroupCommitter.commit", () -> {
+                try (Connection connection = connectionPool.getConnection()) {
+                    // Begin transaction
+                    connection.setAutoCommit(false);
+                    try {
+                        if (transactionService.postChunk(connection, chunk, statuses, 0) || chunk.size() == 1) {
+                            settled[0] = chunk.size();
+                        } else {
+                            // Don't let one bad posting fail the whole group
+                            splitGroups.increment();
+                            for (int i = 0; i < chunk.size(); i++) {
+                                transactionService.postChunk(connection, chunk.subList(i, i + 1), statuses, i);
+                                settled[0] = i + 1;
+                            }
+                        }
+                    } finally {
+                        connection.setAutoCommit(true);
+                    }
+                }
+                return null;
+            });
+        } catch (SQLException | RuntimeException e) {
+            // No connection, it broke mid-group or a posting couldn't be
+            // applied: report what we can't vouch for as failed
+            Arrays.fill(statuses, settled[0], statuses.length, PostingStatus.FAILED);
+        }
+
+        groups.increment();
+        postings.add(group.size());
+        for (int i = 0; i < group.size(); i++) {
+            group.get(i).future.complete(statuses[i]);
+        }
+    }
+
+    private static final class Submission {
+        final Posting posting;
+        final CompletableFuture<PostingStatus> future;
+
+        Submission(Posting posting, CompletableFuture<PostingStatus> future) {
+            this.posting = posting;
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Random;
+
+// Measures transaction-history query latency with and without the indexes
+// added in schema migration 2. "Before" forces the optimizer to ignore the
+// new index, which leaves it with the foreign-key index plus a filesort,
+// exactly what the original schema had.
+//
+// Usage:
+//   java -cp .:lib/* HistoryQueryBenchmark [--seed <rows>] [--accounts <n>] [--iterations <n>]
+//
+// Connection settings come from -Dbank.url, -Dbank.user and -Dbank.password.
+public class HistoryQueryBenchmark {
+    private static final String HISTORY_QUERY =
+            "SELECT id, transaction_type, amount, recipient_account, timestamp FROM transactions %s " +
+                    "WHERE account_number = ? ORDER BY timestamp DESC, id DESC LIMIT 10";
+    private static final String INCOMING_QUERY =
+            "SELECT id, account_number, amount, timestamp FROM transactions %s " +
+                    "WHERE recipient_account = ? ORDER BY timestamp DESC LIMIT 10";
+
+    public static void main(String[] args) throws SQLException {
+        long seedRows = 0;
+        int accounts = 1000;
+        int iterations = 500;
+
+        for (int i = 0; i < args.length - 1; i += 2) {
+            switch (args[i]) {
+                case "--seed":
+                    seedRows = Long.parseLong(args[i + 1]);
+                    break;
+                case "--accounts":
+                    accounts = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--iterations":
+                    iterations = Integer.parseInt(args[i + 1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        String url = System.getProperty("bank.url",
+                "jdbc:mysql://localhost:3306/bank_management?useServerPrepStmts=true&rewriteBatchedStatements=true");
+        String user = System.getProperty("bank.user", "root");
+        String password = System.getProperty("bank.password", "");
+
+        try (Connection connection = DriverManager.getConnection(url, user, password)) {
+            if (seedRows > 0) {
+                seed(connection, seedRows, accounts);
+            }
+
+            System.out.println("Transactions in table: " + count(connection));
+            run(connection, "history (before)", String.format(HISTORY_QUERY,
+                    "IGNORE INDEX (idx_transactions_account_time)"), accounts, iterations);
+            run(connection, "history (after)", String.format(HISTORY_QUERY,
+                    "FORCE INDEX (idx_transactions_account_time)"), accounts, iterations);
+            run(connection, "incoming transfers (before)", String.format(INCOMING_QUERY,
+                    "IGNORE INDEX (idx_transactions_recipient_time)"), accounts, iterations);
+            run(connection, "incoming transfers (after)", String.format(INCOMING_QUERY,
+                    "FORCE INDEX (idx_transactions_recipient_time)"), accounts, iterations);
+        }
+    }
+
+    private static void run(Connection connection, String label, String query, int accounts, int iterations)
+            throws SQLException {
+        Random random = new Random(42);
+        long[] samples = new long[iterations];
+
+        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+            // Warm up the buffer pool and plan cache
+            for (int i = 0; i < Math.min(50, iterations); i++) {
+                execute(stmt, benchAccount(random.nextInt(accounts)));
+            }
+
+            for (int i = 0; i < iterations; i++) {
+                long start = System.nanoTime();
+                execute(stmt, benchAccount(random.nextInt(accounts)));
+                samples[i] = System.nanoTime() - start;
+            }
+        }
+
+        Arrays.sort(samples);
+        System.out.printf("%-30s p50=%8.3f ms  p99=%8.3f ms  max=%8.3f ms%n", label,
+                percentile(samples, 0.50), percentile(samples, 0.99), samples[samples.length - 1] / 1_000_000.0);
+    }
+
+    private static void execute(PreparedStatement stmt, String accountNumber) throws SQLException {
+        stmt.setString(1, accountNumber);
+        try (ResultSet resultSet = stmt.executeQuery()) {
+            while (resultSet.next()) {
+                // Drain the page like a caller would
+            }
+        }
+    }
+
+    private static double percentile(long[] sorted, double fraction) {
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1_000_000.0;
+    }
+
+    private static void seed(Connection connection, long rows, int accounts) throws SQLException {
+        System.out.println("Seeding " + accounts + " accounts and " + rows + " transactions...");
+
+        String accountInsert = "INSERT IGNORE INTO accounts (account_number, name, phone, email, pin, balance) " +
+                "VALUES (?, ?, ?, ?, ?, 0.00)";
+        try (PreparedStatement stmt = connection.prepareStatement(accountInsert)) {
+            for (int i = 0; i < accounts; i++) {
+                String accountNumber = benchAccount(i);
+                stmt.setString(1, accountNumber);
+                stmt.setString(2, "Benchmark " + accountNumber);
+                stmt.setString(3, "55" + accountNumber);
+                stmt.setString(4, "bench" + accountNumber + "@example.com");
+                stmt.setString(5, "benchmark");
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+
+        String transactionInsert = "INSERT INTO transactions (account_number, transaction_type, amount, " +
+                "recipient_account, timestamp) VALUES (?, ?, ? / 100, ?, ?)";
+        Random random = new Random(7);
+        long yearMillis = 365L * 24 * 60 * 60 * 1000;
+        long now = System.currentTimeMillis();
+
+        connection.setAutoCommit(false);
+        try (PreparedStatement stmt = connection.prepareStatement(transactionInsert)) {
+            for (long i = 1; i <= rows; i++) {
+                boolean transfer = random.nextInt(4) == 0;
+                stmt.setString(1, benchAccount(random.nextInt(accounts)));
+                stmt.setString(2, transfer ? "TRANSFER" : (random.nextBoolean() ? "DEPOSIT" : "WITHDRAW"));
+                stmt.setLong(3, 100 + random.nextInt(50_000));
+                stmt.setString(4, transfer ? benchAccount(random.nextInt(accounts)) : null);
+                stmt.setTimestamp(5, new Timestamp(now - (long) (random.nextDouble() * yearMillis)));
+                stmt.addBatch();
+
+                if (i % 10_000 == 0) {
+                    stmt.executeBatch();
+                    connection.commit();
+                }
+                if (i % 1_000_000 == 0) {
+                    System.out.println("  " + i + " rows");
+                }
+            }
+            stmt.executeBatch();
+            connection.commit();
+        } finally {
+            connection.setAutoCommit(true);
+        }
+
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("ANALYZE TABLE transactions");
+        }
+    }
+
+    private static long count(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM transactions")) {
+            return resultSet.next() ? resultSet.getLong(1) : 0;
+        }
+    }
+
+    // Benchmark accounts live at the top of the number range to stay clear of real ones
+    private static String benchAccount(int index) {
+        return String.valueOf(99999 - index);
+    }
+}
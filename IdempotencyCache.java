@@ -0,0 +1,109 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// Bounded in-process record of recently used idempotency keys, the posting
+// each one was used for and the outcome it produced. It sits in front of the
+// idempotency_keys table, so a client retrying a request it just sent is
+// answered from memory. Keys belong to an account, so two clients using the
+// same key on different accounts never meet. Entries expire after a TTL,
+// which must not outlive the table's retention, and the least recently used
+// entry is evicted once the cache is full; an evicted key is still found in
+// the table.
+class IdempotencyCache {
+    private final int maxSize;
+    private final long ttlMillis;
+    private final Map<String, Entry> entries;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public IdempotencyCache(int maxSize, long ttlMillis) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Cache size must be greater than zero.");
+        }
+
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > IdempotencyCache.this.maxSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    // The recorded posting and outcome, or null on a miss or an expired entry
+    synchronized Entry get(String accountNumber, String key) {
+        String cacheKey = cacheKey(accountNumber, key);
+        Entry entry = entries.get(cacheKey);
+        if (entry != null && System.currentTimeMillis() - entry.storedAt <= ttlMillis) {
+            hits.increment();
+            return entry;
+        }
+
+        if (entry != null) {
+            entries.remove(cacheKey);
+        }
+        misses.increment();
+        return null;
+    }
+
+    synchronized void put(String key, Posting posting, PostingStatus status) {
+        entries.put(cacheKey(posting.getAccountNumber(), key),
+                new Entry(posting, status, System.currentTimeMillis()));
+    }
+
+    synchronized void clear() {
+        entries.clear();
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "IdempotencyCache [size=" + size() + ", max=" + maxSize + ", hits=" + getHits() + ", misses="
+                + getMisses() + ", evictions=" + getEvictions() + "]";
+    }
+
+    private static String cacheKey(String accountNumber, String key) {
+        return accountNumber + '/' + key;
+    }
+
+    static final class Entry {
+        final Posting posting;
+        final PostingStatus status;
+        final long storedAt;
+
+        Entry(Posting posting, PostingStatus status, long storedAt) {
+            this.posting = posting;
+            this.status = status;
+            this.storedAt = storedAt;
+        }
+    }
+}
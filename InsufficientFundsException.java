@@ -0,0 +1,15 @@
+import java.sql.SQLException;
+
+class InsufficientFundsException extends SQLException {
+    private static final long serialVersionUID = 1L;
+    private final Money balance;
+
+    public InsufficientFundsException(String accountNumber, Money balance) {
+        super("Insufficient balance in account " + accountNumber + ".");
+        this.balance = balance;
+    }
+
+    public Money getBalance() {
+        return balance;
+    }
+}
@@ -0,0 +1,172 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Just enough JSON for the HTTP API: requests are flat objects whose values
+// are strings, numbers, booleans or null, and responses are built as text.
+// Numbers are kept as their literal text so amounts can go straight to
+// Money.parse without passing through a double.
+final class Json {
+    private final String text;
+    private int position;
+
+    private Json(String text) {
+        this.text = text;
+    }
+
+    // Parses a flat object into field name -> value text (null for JSON null)
+    static Map<String, String> parseObject(String text) {
+        Json parser = new Json(text);
+        Map<String, String> fields = new LinkedHashMap<>();
+
+        parser.skipWhitespace();
+        parser.expect('{');
+        parser.skipWhitespace();
+        if (parser.peek() == '}') {
+            parser.position++;
+        } else {
+            while (true) {
+                parser.skipWhitespace();
+                String name = parser.readString();
+                parser.skipWhitespace();
+                parser.expect(':');
+                parser.skipWhitespace();
+                fields.put(name, parser.readValue());
+                parser.skipWhitespace();
+
+                char next = parser.next();
+                if (next == '}') {
+                    break;
+                }
+                if (next != ',') {
+                    throw new IllegalArgumentException("Expected ',' or '}' at position " + (parser.position - 1));
+                }
+            }
+        }
+
+        parser.skipWhitespace();
+        if (parser.position != text.length()) {
+            throw new IllegalArgumentException("Unexpected content after JSON object.");
+        }
+        return fields;
+    }
+
+    static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+
+        StringBuilder out = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        return out.append('"').toString();
+    }
+
+    private String readValue() {
+        char c = peek();
+        if (c == '"') {
+            return readString();
+        }
+
+        int start = position;
+        while (position < text.length() && ",}] \t\r\n".indexOf(text.charAt(position)) < 0) {
+            position++;
+        }
+        String literal = text.substring(start, position);
+        if (literal.isEmpty() || c == '{' || c == '[') {
+            throw new IllegalArgumentException("Only flat JSON objects are supported.");
+        }
+        return literal.equals("null") ? null : literal;
+    }
+
+    private String readString() {
+        expect('"');
+        StringBuilder out = new StringBuilder();
+        while (true) {
+            char c = next();
+            if (c == '"') {
+                return out.toString();
+            }
+            if (c != '\\') {
+                out.append(c);
+                continue;
+            }
+
+            char escaped = next();
+            switch (escaped) {
+                case 'n':
+                    out.append('\n');
+                    break;
+                case 'r':
+                    out.append('\r');
+                    break;
+                case 't':
+                    out.append('\t');
+                    break;
+                case 'b':
+                    out.append('\b');
+                    break;
+                case 'f':
+                    out.append('\f');
+                    break;
+                case 'u':
+                    if (position + 4 > text.length()) {
+                        throw new IllegalArgumentException("Truncated unicode escape.");
+                    }
+                    out.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                    position += 4;
+                    break;
+                default:
+                    out.append(escaped);
+            }
+        }
+    }
+
+    private void skipWhitespace() {
+        while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+            position++;
+        }
+    }
+
+    private void expect(char expected) {
+        if (next() != expected) {
+            throw new IllegalArgumentException("Expected '" + expected + "' at position " + (position - 1));
+        }
+    }
+
+    private char peek() {
+        if (position >= text.length()) {
+            throw new IllegalArgumentException("Unexpected end of JSON.");
+        }
+        return text.charAt(position);
+    }
+
+    private char next() {
+        char c = peek();
+        position++;
+        return c;
+    }
+}
@@ -0,0 +1,103 @@
+import java.util.Arrays;
+
+// Records latencies in nanoseconds into log-linear buckets, in the style of
+// HdrHistogram: values below 64 are exact, larger ones are kept to 32 steps
+// per power of two (about 3% error). Memory is fixed no matter how many
+// values are recorded, so a worker can record every operation and the
+// per-thread histograms are merged at the end. Not thread-safe.
+class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_LIMIT = SUB_BUCKETS * 2;
+    private static final int BUCKET_COUNT = LINEAR_LIMIT + (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long totalCount;
+    private long min = Long.MAX_VALUE;
+    private long max;
+    private double sum;
+
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts[indexOf(value)]++;
+        totalCount++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        totalCount = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    public long getCount() {
+        return totalCount;
+    }
+
+    public long getMin() {
+        return totalCount == 0 ? 0 : min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return totalCount == 0 ? 0 : sum / totalCount;
+    }
+
+    // Value at the given percentile (0-100), e.g. 99.9 for p999
+    public long getValueAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * totalCount));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(max, Math.max(min, valueOf(i)));
+            }
+        }
+        return max;
+    }
+
+    public double getValueAtPercentileMillis(double percentile) {
+        return getValueAtPercentile(percentile) / 1_000_000.0;
+    }
+
+    private static int indexOf(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return LINEAR_LIMIT + (shift - 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    // Middle of the bucket's value range
+    private static long valueOf(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+
+        int shift = (index - LINEAR_LIMIT) / SUB_BUCKETS + 1;
+        long subBucket = (index - LINEAR_LIMIT) % SUB_BUCKETS + SUB_BUCKETS;
+        return (subBucket << shift) + (1L << (shift - 1));
+    }
+}
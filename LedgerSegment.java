@@ -0,0 +1,229 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+// One fixed-size, memory-mapped file of the posting ledger. Records are
+// appended back to back:
+//
+//   int  body length (0 marks the end of the data; the file is zero-filled)
+//   body long sequence, byte type, long cents, account, recipient
+//        (strings are a short byte count followed by UTF-8, -1 for null)
+//   int  CRC32 of the body
+//
+// Only the ledger's writer thread appends; readers take their own view of
+// the mapping and only look at records the writer has already forced.
+class LedgerSegment {
+    static final String FILE_PREFIX = "ledger-";
+    static final String FILE_SUFFIX = ".seg";
+
+    private static final byte DEPOSIT = 0;
+    private static final byte WITHDRAW = 1;
+    private static final byte TRANSFER = 2;
+    // length + sequence + type + cents + two string lengths + crc
+    private static final int FIXED_RECORD_BYTES = 4 + 8 + 1 + 8 + 2 + 2 + 4;
+
+    private final Path path;
+    private final long baseSequence;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final CRC32 crc = new CRC32();
+    private long lastSequence;
+
+    private LedgerSegment(Path path, long baseSequence, FileChannel channel, MappedByteBuffer buffer) {
+        this.path = path;
+        this.baseSequence = baseSequence;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.lastSequence = baseSequence - 1;
+    }
+
+    static LedgerSegment create(Path directory, long baseSequence, int sizeBytes) throws IOException {
+        Path path = directory.resolve(String.format("%s%020d%s", FILE_PREFIX, baseSequence, FILE_SUFFIX));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, sizeBytes);
+        return new LedgerSegment(path, baseSequence, channel, buffer);
+    }
+
+    // Opens an existing segment and positions it after its last intact record
+    static LedgerSegment open(Path path) throws IOException {
+        String name = path.getFileName().toString();
+        long baseSequence = Long.parseLong(name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length()));
+
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        LedgerSegment segment = new LedgerSegment(path, baseSequence, channel, buffer);
+
+        Reader reader = segment.reader();
+        while (reader.next() != null) {
+            segment.lastSequence = reader.sequence;
+        }
+        segment.buffer.position(reader.position);
+        return segment;
+    }
+
+    // Writes one record; returns false if the segment is full
+    boolean append(long sequence, Posting posting) {
+        byte[] account = posting.getAccountNumber().getBytes(StandardCharsets.UTF_8);
+        byte[] recipient = posting.getRecipientAccount() == null
+                ? null
+                : posting.getRecipientAccount().getBytes(StandardCharsets.UTF_8);
+        int recordBytes = FIXED_RECORD_BYTES + account.length + (recipient == null ? 0 : recipient.length);
+
+        // Leave room for the zero length that marks the end of the data
+        if (buffer.remaining() < recordBytes + 4) {
+            return false;
+        }
+
+        int start = buffer.position();
+        buffer.putInt(recordBytes - 8);
+        buffer.putLong(sequence);
+        buffer.put(typeCode(posting));
+        buffer.putLong(posting.getAmount().getCents());
+        putString(buffer, account);
+        putString(buffer, recipient);
+
+        ByteBuffer body = buffer.duplicate();
+        body.position(start + 4).limit(buffer.position());
+        crc.reset();
+        crc.update(body);
+        buffer.putInt((int) crc.getValue());
+
+        lastSequence = sequence;
+        return true;
+    }
+
+    // Flushes appended records to disk
+    void force() {
+        buffer.force();
+    }
+
+    Reader reader() {
+        return new Reader(buffer.duplicate());
+    }
+
+    long getBaseSequence() {
+        return baseSequence;
+    }
+
+    long getLastSequence() {
+        return lastSequence;
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    void close() throws IOException {
+        channel.close();
+    }
+
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(path);
+    }
+
+    // Zeroes everything after the last intact record, e.g. a record torn by a
+    // crash mid-write, so it cannot be mistaken for data later
+    void truncateTail() {
+        ByteBuffer tail = buffer.duplicate();
+        while (tail.hasRemaining()) {
+            tail.put((byte) 0);
+        }
+        buffer.force();
+    }
+
+    private static byte typeCode(Posting posting) {
+        if (posting.isCredit()) {
+            return DEPOSIT;
+        }
+        return posting.isTransfer() ? TRANSFER : WITHDRAW;
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] value) {
+        if (value == null) {
+            buffer.putShort((short) -1);
+        } else {
+            buffer.putShort((short) value.length);
+            buffer.put(value);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        short length = buffer.getShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] value = new byte[length];
+        buffer.get(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    // Walks the records of a segment in order, stopping at the end of the
+    // data or at the first record whose checksum does not match
+    static final class Reader {
+        private final ByteBuffer view;
+        private final CRC32 crc = new CRC32();
+        private int position;
+        long sequence;
+
+        private Reader(ByteBuffer view) {
+            this.view = view;
+            view.position(0);
+        }
+
+        Posting next() {
+            if (view.limit() - position < 4) {
+                return null;
+            }
+
+            try {
+                view.position(position);
+                int bodyLength = view.getInt();
+                if (bodyLength <= 0 || bodyLength > view.remaining() - 4) {
+                    return null;
+                }
+
+                ByteBuffer body = view.duplicate();
+                body.limit(view.position() + bodyLength);
+                crc.reset();
+                crc.update(body.duplicate());
+                view.position(view.position() + bodyLength);
+                if ((int) crc.getValue() != view.getInt()) {
+                    return null;
+                }
+
+                long recordSequence = body.getLong();
+                byte type = body.get();
+                Money amount = Money.ofCents(body.getLong());
+                String account = getString(body);
+                String recipient = getString(body);
+
+                Posting posting;
+                if (type == DEPOSIT) {
+                    posting = Posting.deposit(account, amount);
+                } else if (type == WITHDRAW) {
+                    posting = Posting.withdraw(account, amount);
+                } else if (type == TRANSFER) {
+                    posting = Posting.transfer(account, recipient, amount);
+                } else {
+                    return null;
+                }
+
+                sequence = recordSequence;
+                position = view.position();
+                return posting;
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                // Lengths inside a damaged record point past its end
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Limits PIN guessing. Failed checks are counted per account and per client
+// address over a sliding window: the failures of the last windowMillis,
+// whenever the check happens. Once either reaches its limit, further
+// attempts for that key are refused for a lockout period that doubles with
+// every lockout in a row, without touching the database. A successful check
+// clears the account's count. Counts only live in this process's memory.
+class LoginThrottle {
+    private static final int DEFAULT_MAX_ACCOUNT_FAILURES = 5;
+    private static final int DEFAULT_MAX_ADDRESS_FAILURES = 20;
+    private static final long DEFAULT_WINDOW_MILLIS = 15 * 60 * 1000;
+    private static final long DEFAULT_LOCKOUT_MILLIS = 30 * 1000;
+    private static final long MAX_LOCKOUT_MILLIS = 60 * 60 * 1000;
+    private static final int PURGE_EVERY = 1024;
+
+    private final int maxAccountFailures;
+    private final int maxAddressFailures;
+    private final long windowMillis;
+    private final long lockoutMillis;
+    private final Map<String, Counter> accounts = new ConcurrentHashMap<>();
+    private final Map<String, Counter> addresses = new ConcurrentHashMap<>();
+    private final AtomicInteger recorded = new AtomicInteger();
+
+    private final LongAdder lockouts = new LongAdder();
+    private final LongAdder refused = new LongAdder();
+
+    public LoginThrottle() {
+        this(DEFAULT_MAX_ACCOUNT_FAILURES, DEFAULT_MAX_ADDRESS_FAILURES, DEFAULT_WINDOW_MILLIS, DEFAULT_LOCKOUT_MILLIS);
+    }
+
+    public LoginThrottle(int maxAccountFailures, int maxAddressFailures, long windowMillis, long lockoutMillis) {
+        if (maxAccountFailures <= 0 || maxAddressFailures <= 0 || windowMillis <= 0 || lockoutMillis <= 0) {
+            throw new IllegalArgumentException("Failure limits, window and lockout must be greater than zero.");
+        }
+        this.maxAccountFailures = maxAccountFailures;
+        this.maxAddressFailures = maxAddressFailures;
+        this.windowMillis = windowMillis;
+        this.lockoutMillis = lockoutMillis;
+    }
+
+    // Milliseconds until the account or address may try again; 0 if it may now
+    public long retryAfterMillis(String accountNumber, String address) {
+        long now = System.currentTimeMillis();
+        long wait = Math.max(remaining(accounts.get(accountNumber), now), remaining(addresses.get(address), now));
+        if (wait > 0) {
+            refused.increment();
+        }
+        return wait;
+    }
+
+    public void recordFailure(String accountNumber, String address) {
+        // Drop idle counters now and then so one-off failures don't pile up
+        if (recorded.incrementAndGet() % PURGE_EVERY == 0) {
+            purgeIdle();
+        }
+
+        long now = System.currentTimeMillis();
+        accounts.computeIfAbsent(accountNumber, key -> new Counter(maxAccountFailures)).fail(now);
+        addresses.computeIfAbsent(address, key -> new Counter(maxAddressFailures)).fail(now);
+    }
+
+    public void recordSuccess(String accountNumber) {
+        accounts.remove(accountNumber);
+    }
+
+    public long getLockoutCount() {
+        return lockouts.sum();
+    }
+
+    // Attempts turned away while locked out
+    public long getRefusedCount() {
+        return refused.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "LoginThrottle [accounts=" + accounts.size() + ", addresses=" + addresses.size() + ", lockouts="
+                + getLockoutCount() + ", refused=" + getRefusedCount() + "]";
+    }
+
+    private static long remaining(Counter counter, long now) {
+        return counter == null ? 0 : counter.remaining(now);
+    }
+
+    private void purgeIdle() {
+        long now = System.currentTimeMillis();
+        accounts.values().removeIf(counter -> counter.isIdle(now));
+        addresses.values().removeIf(counter -> counter.isIdle(now));
+    }
+
+    private final class Counter {
+        // Times of the most recent failures, oldest at next; 0 is an empty slot
+        private final long[] failures;
+        private int next;
+        private int consecutiveLockouts;
+        private long lastFailure;
+        private long lockedUntil;
+
+        Counter(int maxFailures) {
+            this.failures = new long[maxFailures];
+        }
+
+        synchronized void fail(long now) {
+            failures[next] = now;
+            next = (next + 1) % failures.length;
+            lastFailure = now;
+
+            // The limit is reached when the oldest of the last maxFailures
+            // failures is still inside the window
+            long oldest = failures[next];
+            if (oldest != 0 && now - oldest <= windowMillis) {
+                long lockout = Math.min(MAX_LOCKOUT_MILLIS, lockoutMillis << Math.min(consecutiveLockouts, 20));
+                lockedUntil = now + lockout;
+                consecutiveLockouts++;
+                Arrays.fill(failures, 0);
+                lockouts.increment();
+            }
+        }
+
+        synchronized long remaining(long now) {
+            return Math.max(0, lockedUntil - now);
+        }
+
+        // Nothing left to remember: not locked out and no recent failure
+        synchronized boolean isIdle(long now) {
+            return lockedUntil <= now && now - lastFailure > Math.max(windowMillis, MAX_LOCKOUT_MILLIS);
+        }
+    }
+}
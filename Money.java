@@ -0,0 +1,91 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+// An exact amount of money held as a whole number of cents. Arithmetic stays
+// in long math; conversion to and from text or BigDecimal only happens at the
+// edges (console input, display, and the odd JDBC read that needs it).
+final class Money implements Comparable<Money> {
+    public static final Money ZERO = new Money(0);
+
+    private final long cents;
+
+    private Money(long cents) {
+        this.cents = cents;
+    }
+
+    public static Money ofCents(long cents) {
+        return cents == 0 ? ZERO : new Money(cents);
+    }
+
+    // Parses user input such as "25", "25.5" or "25.50"; more than two
+    // decimal places is rejected rather than silently rounded
+    public static Money parse(String text) {
+        BigDecimal value;
+        try {
+            value = new BigDecimal(text.trim());
+        } catch (NumberFormatException e) {
+            throw new NumberFormatException("Invalid amount: " + text);
+        }
+
+        if (value.stripTrailingZeros().scale() > 2) {
+            throw new NumberFormatException("Amounts can have at most two decimal places: " + text);
+        }
+
+        try {
+            return ofCents(value.movePointRight(2).longValueExact());
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("Amount is too large: " + text);
+        }
+    }
+
+    public static Money fromDecimal(BigDecimal value) {
+        return ofCents(value.movePointRight(2).setScale(0, RoundingMode.UNNECESSARY).longValueExact());
+    }
+
+    public long getCents() {
+        return cents;
+    }
+
+    public BigDecimal toDecimal() {
+        return BigDecimal.valueOf(cents, 2);
+    }
+
+    public Money plus(Money other) {
+        return ofCents(Math.addExact(cents, other.cents));
+    }
+
+    public Money minus(Money other) {
+        return ofCents(Math.subtractExact(cents, other.cents));
+    }
+
+    public boolean isPositive() {
+        return cents > 0;
+    }
+
+    public boolean isLessThan(Money other) {
+        return cents < other.cents;
+    }
+
+    @Override
+    public int compareTo(Money other) {
+        return Long.compare(cents, other.cents);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof Money && ((Money) other).cents == cents;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(cents);
+    }
+
+    // Plain decimal text with two places, e.g. "1234.50" or "-0.05"
+    @Override
+    public String toString() {
+        long whole = Math.abs(cents / 100);
+        long fraction = Math.abs(cents % 100);
+        return (cents < 0 ? "-" : "") + whole + (fraction < 10 ? ".0" : ".") + fraction;
+    }
+}
@@ -0,0 +1,79 @@
+import java.util.concurrent.atomic.LongAdder;
+
+// Counters and a latency histogram for one instrumented operation, e.g.
+// "TransactionService.transfer". Safe to update from many threads.
+class OperationStats {
+    private final String name;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder rollbacks = new LongAdder();
+    private final LongAdder roundTrips = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    OperationStats(String name) {
+        this.name = name;
+    }
+
+    void recordCall(long elapsedNanos, boolean failed) {
+        count.increment();
+        if (failed) {
+            errors.increment();
+        }
+        synchronized (latency) {
+            latency.record(elapsedNanos);
+        }
+    }
+
+    void recordRollback() {
+        rollbacks.increment();
+    }
+
+    void recordRoundTrip() {
+        roundTrips.increment();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    public long getRollbacks() {
+        return rollbacks.sum();
+    }
+
+    public long getRoundTrips() {
+        return roundTrips.sum();
+    }
+
+    public double getRoundTripsPerCall() {
+        long calls = getCount();
+        return calls == 0 ? 0 : (double) getRoundTrips() / calls;
+    }
+
+    // Copy of the latency histogram, so percentiles can be read without
+    // holding up threads that are recording
+    public LatencyHistogram getLatency() {
+        LatencyHistogram copy = new LatencyHistogram();
+        synchronized (latency) {
+            copy.add(latency);
+        }
+        return copy;
+    }
+
+    @Override
+    public String toString() {
+        LatencyHistogram snapshot = getLatency();
+        return name + " [count=" + getCount() + ", errors=" + getErrors() + ", rollbacks=" + getRollbacks()
+                + ", roundTrips/call=" + String.format("%.2f", getRoundTripsPerCall())
+                + ", p50Ms=" + String.format("%.3f", snapshot.getValueAtPercentileMillis(50))
+                + ", p99Ms=" + String.format("%.3f", snapshot.getValueAtPercentileMillis(99))
+                + ", p999Ms=" + String.format("%.3f", snapshot.getValueAtPercentileMillis(99.9)) + "]";
+    }
+}
@@ -0,0 +1,139 @@
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+// Hashes and checks account PINs. Two stored formats are understood:
+//
+//   64 hex chars                          unsalted SHA-256, the original format
+//   pbkdf2$<iterations>$<salt>$<hash>     salted PBKDF2-HMAC-SHA256, Base64 parts
+//
+// New hashes use PBKDF2 when an iteration count is configured
+// (-Dbank.pin.iterations), otherwise SHA-256 so existing rows and the sample
+// data keep working. needsRehash() tells the caller when a successful login
+// should upgrade the stored hash. Comparisons are constant time, and a
+// missing hash (no such account) takes as long as a wrong PIN.
+class PinHasher {
+    private static final String PBKDF2_PREFIX = "pbkdf2$";
+    private static final String PBKDF2_ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_BYTES = 16;
+    private static final int KEY_BITS = 256;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    // MessageDigest is not thread-safe, so keep one per thread instead of
+    // looking one up on every call
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to provide SHA-256
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    });
+
+    private final int iterations;
+    private final SecureRandom random = new SecureRandom();
+    // Checked against when there is no stored hash, so an unknown account
+    // costs as much as a wrong PIN and can't be told apart by timing
+    private final String dummyHash;
+
+    // iterations == 0 keeps writing unsalted SHA-256 hashes
+    public PinHasher(int iterations) {
+        if (iterations < 0) {
+            throw new IllegalArgumentException("Iterations cannot be negative.");
+        }
+        this.iterations = iterations;
+        this.dummyHash = hash("0000");
+    }
+
+    public static PinHasher fromSystemProperties() {
+        return new PinHasher(Integer.getInteger("bank.pin.iterations", 0));
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    // Hash to store for a new or changed PIN
+    public String hash(String pin) {
+        if (iterations == 0) {
+            return sha256Hex(pin);
+        }
+
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        Base64.Encoder encoder = Base64.getEncoder().withoutPadding();
+        return PBKDF2_PREFIX + iterations + "$" + encoder.encodeToString(salt) + "$"
+                + encoder.encodeToString(pbkdf2(pin, salt, iterations));
+    }
+
+    public boolean matches(String pin, String stored) {
+        if (stored == null) {
+            matches(pin, dummyHash);
+            return false;
+        }
+        if (!stored.startsWith(PBKDF2_PREFIX)) {
+            return MessageDigest.isEqual(sha256Hex(pin).getBytes(StandardCharsets.US_ASCII),
+                    stored.getBytes(StandardCharsets.US_ASCII));
+        }
+
+        String[] parts = stored.split("\\$");
+        if (parts.length != 4) {
+            return false;
+        }
+        try {
+            int storedIterations = Integer.parseInt(parts[1]);
+            byte[] salt = Base64.getDecoder().decode(parts[2]);
+            byte[] expected = Base64.getDecoder().decode(parts[3]);
+            return MessageDigest.isEqual(pbkdf2(pin, salt, storedIterations), expected);
+        } catch (IllegalArgumentException e) {
+            // Corrupt hash: treat it as a mismatch rather than an error
+            return false;
+        }
+    }
+
+    // True when the stored hash is weaker than what this hasher would write
+    public boolean needsRehash(String stored) {
+        if (iterations == 0) {
+            return false;
+        }
+        if (!stored.startsWith(PBKDF2_PREFIX)) {
+            return true;
+        }
+
+        String[] parts = stored.split("\\$");
+        try {
+            return parts.length != 4 || Integer.parseInt(parts[1]) < iterations;
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    static String sha256Hex(String pin) {
+        return toHex(SHA_256.get().digest(pin.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    static String toHex(byte[] bytes) {
+        char[] out = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            out[i * 2] = HEX[(bytes[i] >> 4) & 0x0f];
+            out[i * 2 + 1] = HEX[bytes[i] & 0x0f];
+        }
+        return new String(out);
+    }
+
+    private static byte[] pbkdf2(String pin, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(pin.toCharArray(), salt, iterations, KEY_BITS);
+        try {
+            return SecretKeyFactory.getInstance(PBKDF2_ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(PBKDF2_ALGORITHM + " is not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
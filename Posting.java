@@ -0,0 +1,93 @@
+import java.util.Objects;
+
+// A single deposit, withdrawal or transfer submitted for bulk posting
+class Posting {
+    private final String type;
+    private final String accountNumber;
+    private final Money amount;
+    private final String recipientAccount;
+
+    // A non-positive amount is accepted here and reported as INVALID_AMOUNT
+    // when the posting is applied; missing fields are rejected up front so
+    // they never reach a committer thread
+    private Posting(String type, String accountNumber, Money amount, String recipientAccount) {
+        if (accountNumber == null || amount == null) {
+            throw new IllegalArgumentException("A posting needs an account number and an amount.");
+        }
+        if (type.equals("TRANSFER") && recipientAccount == null) {
+            throw new IllegalArgumentException("A transfer needs a recipient account.");
+        }
+
+        this.type = type;
+        this.accountNumber = accountNumber;
+        this.amount = amount;
+        this.recipientAccount = recipientAccount;
+    }
+
+    public static Posting deposit(String accountNumber, Money amount) {
+        return new Posting("DEPOSIT", accountNumber, amount, null);
+    }
+
+    public static Posting withdraw(String accountNumber, Money amount) {
+        return new Posting("WITHDRAW", accountNumber, amount, null);
+    }
+
+    public static Posting transfer(String fromAccount, String toAccount, Money amount) {
+        return new Posting("TRANSFER", fromAccount, amount, toAccount);
+    }
+
+    // Account numbers are exactly five digits
+    static boolean isAccountNumber(String accountNumber) {
+        if (accountNumber == null || accountNumber.length() != 5) {
+            return false;
+        }
+        for (int i = 0; i < 5; i++) {
+            char c = accountNumber.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Both account numbers are well formed, so they fit the account columns
+    boolean hasValidAccounts() {
+        return isAccountNumber(accountNumber) && (!isTransfer() || isAccountNumber(recipientAccount));
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getAccountNumber() {
+        return accountNumber;
+    }
+
+    public Money getAmount() {
+        return amount;
+    }
+
+    public String getRecipientAccount() {
+        return recipientAccount;
+    }
+
+    public boolean isCredit() {
+        return type.equals("DEPOSIT");
+    }
+
+    public boolean isTransfer() {
+        return type.equals("TRANSFER");
+    }
+
+    // Same operation on the same accounts for the same amount
+    boolean isSameRequest(Posting other) {
+        return type.equals(other.type) && accountNumber.equals(other.accountNumber) && amount.equals(other.amount)
+                && Objects.equals(recipientAccount, other.recipientAccount);
+    }
+
+    @Override
+    public String toString() {
+        return "Posting [type=" + type + ", accountNumber=" + accountNumber + ", amount=" + amount
+                + ", recipientAccount=" + recipientAccount + "]";
+    }
+}
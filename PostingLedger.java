@@ -0,0 +1,639 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DataTruncation;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLNonTransientException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Optional local write-ahead ledger for high intake. append() hands the
+// posting to a single writer thread, which writes whatever has queued up
+// into the current memory-mapped LedgerSegment and forces it to disk once
+// for the whole group; the futures complete only after that fsync, so an
+// acknowledged posting survives a crash.
+//
+// A background applier then replays durable postings into MySQL in batches
+// through TransactionService.applyChunk, advancing ledger_checkpoint in the
+// same database transaction. On startup the checkpoint says where to resume,
+// so postings that were durable but not yet applied are replayed exactly
+// once. Fully applied segments are deleted.
+//
+// Acknowledgement means "durably accepted", not "applied": a withdrawal can
+// still be rejected for insufficient funds when it is applied. Rejections
+// are written to ledger_rejections in the applier's transaction, where a
+// client can look its sequence up (getRejections), and are passed to the
+// rejection listener.
+//
+// A batch that fails with a transient error (lost connection, deadlock) is
+// retried with backoff for as long as it takes. One that fails permanently
+// is retried a posting at a time, and a posting that still fails after
+// MAX_PERMANENT_FAILURES attempts is recorded as FAILED with the error and
+// skipped, so it can't hold up every posting behind it.
+class PostingLedger implements AutoCloseable {
+    private static final int DEFAULT_SEGMENT_BYTES = 16 * 1024 * 1024;
+    private static final int DEFAULT_GROUP_SIZE = 1024;
+    private static final int DEFAULT_APPLY_BATCH_SIZE = 500;
+    private static final long MAX_APPLY_BACKOFF_MILLIS = 5_000;
+    private static final int MAX_PERMANENT_FAILURES = 3;
+    private static final int MAX_REASON_LENGTH = 255;
+
+    private final Path directory;
+    private final ConnectionPool connectionPool;
+    private final TransactionService transactionService;
+    private final int segmentBytes;
+    private final int groupSize;
+    private final int applyBatchSize;
+
+    private final BlockingQueue<PendingAppend> queue = new LinkedBlockingQueue<>();
+    // Oldest first; the last one is being written
+    private final Deque<LedgerSegment> segments = new ArrayDeque<>();
+    private final Object applierSignal = new Object();
+
+    private final LongAdder groupCommits = new LongAdder();
+    private final LongAdder applied = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    private volatile long durableSequence;
+    private volatile long appliedSequence;
+    private volatile IOException writeFailure;
+    private volatile boolean closed;
+    private volatile BiConsumer<Posting, PostingStatus> rejectionListener = (posting, status) -> { };
+    private long nextSequence;
+    private Thread writer;
+    private Thread applier;
+
+    public PostingLedger(Path directory, ConnectionPool connectionPool, TransactionService transactionService) {
+        this(directory, connectionPool, transactionService, DEFAULT_SEGMENT_BYTES, DEFAULT_GROUP_SIZE,
+                DEFAULT_APPLY_BATCH_SIZE);
+    }
+
+    public PostingLedger(Path directory, ConnectionPool connectionPool, TransactionService transactionService,
+                         int segmentBytes, int groupSize, int applyBatchSize) {
+        this.directory = directory;
+        this.connectionPool = connectionPool;
+        this.transactionService = transactionService;
+        this.segmentBytes = segmentBytes;
+        this.groupSize = groupSize;
+        this.applyBatchSize = applyBatchSize;
+    }
+
+    // Recovers existing segments, then starts the writer and applier threads
+    public void start() throws IOException, SQLException {
+        Files.createDirectories(directory);
+        appliedSequence = readCheckpoint();
+        recover();
+
+        writer = new Thread(this::writeLoop, "posting-ledger-writer");
+        applier = new Thread(this::applyLoop, "posting-ledger-applier");
+        writer.setDaemon(true);
+        applier.setDaemon(true);
+        writer.start();
+        applier.start();
+    }
+
+    // Completes with the posting's ledger sequence once it is on disk
+    public CompletableFuture<Long> append(Posting posting) {
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        IOException failure = writeFailure;
+        if (closed || failure != null) {
+            future.completeExceptionally(failure != null ? failure : new IOException("Ledger is closed."));
+            return future;
+        }
+
+        queue.add(new PendingAppend(posting, future));
+        return future;
+    }
+
+    public void setRejectionListener(BiConsumer<Posting, PostingStatus> rejectionListener) {
+        this.rejectionListener = rejectionListener;
+    }
+
+    public long getDurableSequence() {
+        return durableSequence;
+    }
+
+    public long getAppliedSequence() {
+        return appliedSequence;
+    }
+
+    // Durable postings not yet in MySQL
+    public long getBacklog() {
+        return durableSequence - appliedSequence;
+    }
+
+    public long getGroupCommits() {
+        return groupCommits.sum();
+    }
+
+    public long getAppliedCount() {
+        return applied.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    // The account's most recent rejected or failed postings, newest first
+    public List<Rejection> getRejections(String accountNumber, int limit) throws SQLException {
+        String query = "SELECT sequence, transaction_type, CAST(amount * 100 AS SIGNED) AS amount_cents, " +
+                "recipient_account, status, reason FROM ledger_rejections WHERE account_number = ? " +
+                "ORDER BY sequence DESC LIMIT ?";
+        try (Connection connection = connectionPool.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
+            stmt.setString(1, accountNumber);
+            stmt.setInt(2, limit);
+
+            List<Rejection> rejections = new ArrayList<>();
+            ResultSet resultSet = stmt.executeQuery();
+            while (resultSet.next()) {
+                Money amount = Money.ofCents(resultSet.getLong("amount_cents"));
+                String type = resultSet.getString("transaction_type");
+                Posting posting = type.equals("DEPOSIT") ? Posting.deposit(accountNumber, amount)
+                        : type.equals("WITHDRAW") ? Posting.withdraw(accountNumber, amount)
+                        : Posting.transfer(accountNumber, resultSet.getString("recipient_account"), amount);
+                rejections.add(new Rejection(resultSet.getLong("sequence"), posting,
+                        PostingStatus.valueOf(resultSet.getString("status")), resultSet.getString("reason")));
+            }
+            return rejections;
+        }
+    }
+
+    // Waits until everything acknowledged so far has been applied
+    public boolean awaitApplied(long timeoutMillis) throws InterruptedException {
+        long target = durableSequence;
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (appliedSequence < target) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            Thread.sleep(Math.min(remaining, 10));
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        try {
+            if (writer != null) {
+                writer.interrupt();
+                writer.join();
+            }
+            if (applier != null) {
+                applier.interrupt();
+                applier.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (segments) {
+            for (LedgerSegment segment : segments) {
+                segment.close();
+            }
+            segments.clear();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PostingLedger [durable=" + durableSequence + ", applied=" + appliedSequence
+                + ", groupCommits=" + getGroupCommits() + ", rejected=" + getRejectedCount() + "]";
+    }
+
+    private long readCheckpoint() throws SQLException {
+        try (Connection connection = connectionPool.getConnection()) {
+            String insertQuery = "INSERT IGNORE INTO ledger_checkpoint (id, applied_sequence) VALUES (1, 0)";
+            try (PreparedStatement stmt = connection.prepareStatement(insertQuery)) {
+                stmt.executeUpdate();
+            }
+
+            String query = "SELECT applied_sequence FROM ledger_checkpoint WHERE id = 1";
+            try (PreparedStatement stmt = connection.prepareStatement(query)) {
+                ResultSet resultSet = stmt.executeQuery();
+                return resultSet.next() ? resultSet.getLong(1) : 0;
+            }
+        }
+    }
+
+    private void recover() throws IOException {
+        List<Path> paths;
+        try (Stream<Path> files = Files.list(directory)) {
+            paths = files.filter(path -> {
+                String name = path.getFileName().toString();
+                return name.startsWith(LedgerSegment.FILE_PREFIX) && name.endsWith(LedgerSegment.FILE_SUFFIX);
+            }).sorted().collect(Collectors.toList());
+        }
+
+        long lastSequence = appliedSequence;
+        LedgerSegment previous = null;
+        for (Path path : paths) {
+            LedgerSegment segment = LedgerSegment.open(path);
+            if (previous != null && previous.getLastSequence() + 1 != segment.getBaseSequence()) {
+                throw new IOException("Ledger segment " + previous.getPath() + " is damaged: it ends at "
+                        + previous.getLastSequence() + " but the next segment starts at " + segment.getBaseSequence());
+            }
+            segments.addLast(segment);
+            lastSequence = Math.max(lastSequence, segment.getLastSequence());
+            previous = segment;
+        }
+
+        // Only the newest segment can have a half-written record at the end
+        if (previous != null) {
+            previous.truncateTail();
+        }
+        LedgerSegment oldest = segments.peekFirst();
+        if (oldest != null && oldest.getBaseSequence() > appliedSequence + 1 && lastSequence > appliedSequence) {
+            throw new IOException("Ledger starts at posting " + oldest.getBaseSequence()
+                    + " but only postings up to " + appliedSequence + " have been applied.");
+        }
+
+        durableSequence = lastSequence;
+        nextSequence = lastSequence + 1;
+        deleteAppliedSegments();
+
+        if (durableSequence > appliedSequence) {
+            System.out.println("Posting ledger: replaying " + (durableSequence - appliedSequence)
+                    + " postings not yet applied.");
+        }
+    }
+
+    private void writeLoop() {
+        List<PendingAppend> group = new ArrayList<>(groupSize);
+        while (!closed) {
+            try {
+                group.add(queue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            queue.drainTo(group, groupSize - 1);
+
+            try {
+                writeGroup(group);
+            } catch (IOException e) {
+                writeFailure = e;
+                for (PendingAppend pending : group) {
+                    pending.future.completeExceptionally(e);
+                }
+                group.clear();
+                break;
+            }
+            group.clear();
+        }
+
+        // Fail anything still queued so no caller waits forever
+        IOException failure = writeFailure != null ? writeFailure : new IOException("Ledger is closed.");
+        PendingAppend pending;
+        while ((pending = queue.poll()) != null) {
+            pending.future.completeExceptionally(failure);
+        }
+    }
+
+    private void writeGroup(List<PendingAppend> group) throws IOException {
+        LedgerSegment current;
+        synchronized (segments) {
+            current = segments.peekLast();
+        }
+
+        long first = nextSequence;
+        for (PendingAppend pending : group) {
+            if (current == null || !current.append(nextSequence, pending.posting)) {
+                // Full: make what we wrote durable, then start a new segment
+                if (current != null) {
+                    current.force();
+                }
+                current = LedgerSegment.create(directory, nextSequence, segmentBytes);
+                synchronized (segments) {
+                    segments.addLast(current);
+                }
+                if (!current.append(nextSequence, pending.posting)) {
+                    throw new IOException("Posting does not fit in an empty ledger segment.");
+                }
+            }
+            nextSequence++;
+        }
+
+        // Group commit: one fsync covers every posting in the group
+        current.force();
+        groupCommits.increment();
+        durableSequence = nextSequence - 1;
+
+        long sequence = first;
+        for (PendingAppend pending : group) {
+            pending.future.complete(sequence++);
+        }
+        synchronized (applierSignal) {
+            applierSignal.notifyAll();
+        }
+    }
+
+    private void applyLoop() {
+        Cursor cursor = new Cursor();
+        long backoff = 0;
+        // Postings up to here are applied one at a time after a permanent failure
+        long isolateThrough = 0;
+        int permanentFailures = 0;
+
+        while (!closed) {
+            try {
+                if (appliedSequence >= durableSequence) {
+                    synchronized (applierSignal) {
+                        if (appliedSequence >= durableSequence) {
+                            applierSignal.wait(100);
+                        }
+                    }
+                    continue;
+                }
+
+                if (backoff > 0) {
+                    TimeUnit.MILLISECONDS.sleep(backoff);
+                }
+                long limit = appliedSequence < isolateThrough ? 1 : applyBatchSize;
+                List<Posting> batch = cursor.read(Math.min(limit, durableSequence - appliedSequence));
+                try {
+                    applyBatch(batch, appliedSequence + batch.size());
+                    backoff = 0;
+                    permanentFailures = 0;
+                } catch (SQLException e) {
+                    // Leave the checkpoint where it was and try the same postings again
+                    cursor.rewind(appliedSequence);
+                    if (isPermanent(e)) {
+                        if (batch.size() > 1) {
+                            // Find the posting that fails
+                            isolateThrough = appliedSequence + batch.size();
+                            continue;
+                        }
+                        if (++permanentFailures >= MAX_PERMANENT_FAILURES) {
+                            try {
+                                setAside(batch.get(0), appliedSequence + 1, e);
+                                permanentFailures = 0;
+                                backoff = 0;
+                                continue;
+                            } catch (SQLException setAsideFailure) {
+                                // Try again after the backoff below
+                                e = setAsideFailure;
+                            }
+                        }
+                    }
+                    backoff = Math.min(MAX_APPLY_BACKOFF_MILLIS, Math.max(10, backoff * 2));
+                    System.out.println("Posting ledger: apply failed, retrying in " + backoff + " ms: " + e.getMessage());
+                }
+            } catch (InterruptedException e) {
+                // Anything not applied yet is replayed on the next start
+                break;
+            } catch (IOException e) {
+                System.out.println("Posting ledger: cannot read segments: " + e.getMessage());
+                break;
+            }
+        }
+    }
+
+    private void applyBatch(List<Posting> batch, long lastSequence) throws SQLException, IOException {
+        PostingStatus[] statuses = new PostingStatus[batch.size()];
+        try (Connection connection = connectionPool.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                transactionService.applyChunk(connection, batch, statuses, 0);
+                recordRejections(connection, batch, statuses, lastSequence - batch.size() + 1, null);
+
+                // Same transaction as the postings, so they are applied exactly once
+                advanceCheckpoint(connection, lastSequence - batch.size(), lastSequence);
+
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+                transactionService.evictAccounts(batch);
+            }
+        }
+
+        appliedSequence = lastSequence;
+        applied.add(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            if (statuses[i] != PostingStatus.SUCCESS) {
+                rejected.increment();
+                rejectionListener.accept(batch.get(i), statuses[i]);
+            }
+        }
+        deleteAppliedSegments();
+    }
+
+    // Records a posting that keeps failing for a reason retrying won't fix as
+    // FAILED and moves the checkpoint past it
+    private void setAside(Posting posting, long sequence, SQLException cause) throws SQLException {
+        String reason = String.valueOf(cause.getMessage());
+        System.out.println("Posting ledger: setting posting " + sequence + " aside as FAILED: " + reason);
+
+        try (Connection connection = connectionPool.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                recordRejections(connection, List.of(posting), new PostingStatus[] {PostingStatus.FAILED}, sequence,
+                        reason.length() > MAX_REASON_LENGTH ? reason.substring(0, MAX_REASON_LENGTH) : reason);
+                advanceCheckpoint(connection, sequence - 1, sequence);
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+
+        appliedSequence = sequence;
+        rejected.increment();
+        rejectionListener.accept(posting, PostingStatus.FAILED);
+        try {
+            deleteAppliedSegments();
+        } catch (IOException e) {
+            System.out.println("Posting ledger: cannot delete applied segments: " + e.getMessage());
+        }
+    }
+
+    private static void recordRejections(Connection connection, List<Posting> batch, PostingStatus[] statuses,
+                                         long firstSequence, String reason) throws SQLException {
+        String query = "INSERT INTO ledger_rejections (sequence, account_number, transaction_type, amount, " +
+                "recipient_account, status, reason) VALUES (?, ?, ?, ? / 100, ?, ?, ?)";
+        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+            boolean any = false;
+            for (int i = 0; i < batch.size(); i++) {
+                if (statuses[i] == PostingStatus.SUCCESS) {
+                    continue;
+                }
+                Posting posting = batch.get(i);
+                stmt.setLong(1, firstSequence + i);
+                stmt.setString(2, posting.getAccountNumber());
+                stmt.setString(3, posting.getType());
+                stmt.setLong(4, posting.getAmount().getCents());
+                stmt.setString(5, posting.getRecipientAccount());
+                stmt.setString(6, statuses[i].name());
+                stmt.setString(7, reason);
+                stmt.addBatch();
+                any = true;
+            }
+            if (any) {
+                stmt.executeBatch();
+            }
+        }
+    }
+
+    private static void advanceCheckpoint(Connection connection, long from, long to) throws SQLException {
+        String query = "UPDATE ledger_checkpoint SET applied_sequence = ? WHERE id = 1 AND applied_sequence = ?";
+        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+            stmt.setLong(1, to);
+            stmt.setLong(2, from);
+            if (stmt.executeUpdate() != 1) {
+                throw new SQLException("Ledger checkpoint moved underneath the applier.");
+            }
+        }
+    }
+
+    // Errors that will recur however often the posting is retried; a lost
+    // connection is not one of them. Batches wrap the real error, so look
+    // through the chain.
+    private static boolean isPermanent(SQLException e) {
+        for (SQLException next = e; next != null; next = next.getNextException()) {
+            for (Throwable cause = next; cause != null; cause = cause.getCause()) {
+                if (cause instanceof SQLNonTransientConnectionException) {
+                    return false;
+                }
+                if (cause instanceof SQLNonTransientException || cause instanceof DataTruncation) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Drops segments whose postings are all applied, except the one being written
+    private void deleteAppliedSegments() throws IOException {
+        synchronized (segments) {
+            while (segments.size() > 1 && segments.peekFirst().getLastSequence() <= appliedSequence) {
+                segments.pollFirst().delete();
+            }
+        }
+    }
+
+    // The applier's read position: the segment and record after appliedSequence
+    private final class Cursor {
+        private LedgerSegment segment;
+        private LedgerSegment.Reader reader;
+        private long nextSequence = -1;
+
+        List<Posting> read(long count) throws IOException {
+            if (nextSequence != appliedSequence + 1) {
+                rewind(appliedSequence);
+            }
+
+            List<Posting> batch = new ArrayList<>((int) count);
+            while (batch.size() < count) {
+                Posting posting = reader == null ? null : reader.next();
+                if (posting == null) {
+                    // End of this segment; the rest is in the next one
+                    if (!advanceSegment()) {
+                        throw new IOException("Ledger is missing posting " + nextSequence);
+                    }
+                    continue;
+                }
+                if (reader.sequence < nextSequence) {
+                    continue;
+                }
+                if (reader.sequence != nextSequence) {
+                    throw new IOException("Ledger expected posting " + nextSequence + " but found " + reader.sequence);
+                }
+                batch.add(posting);
+                nextSequence++;
+            }
+            return batch;
+        }
+
+        // Positions the cursor just after the given sequence
+        void rewind(long sequence) {
+            nextSequence = sequence + 1;
+            segment = null;
+            reader = null;
+            synchronized (segments) {
+                for (LedgerSegment candidate : segments) {
+                    if (candidate.getBaseSequence() <= nextSequence) {
+                        segment = candidate;
+                    }
+                }
+            }
+            if (segment != null) {
+                reader = segment.reader();
+            }
+        }
+
+        private boolean advanceSegment() {
+            long currentBase = segment == null ? Long.MIN_VALUE : segment.getBaseSequence();
+            synchronized (segments) {
+                for (LedgerSegment candidate : segments) {
+                    if (candidate.getBaseSequence() > currentBase) {
+                        segment = candidate;
+                        reader = candidate.reader();
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+    static final class Rejection {
+        private final long sequence;
+        private final Posting posting;
+        private final PostingStatus status;
+        private final String reason;
+
+        Rejection(long sequence, Posting posting, PostingStatus status, String reason) {
+            this.sequence = sequence;
+            this.posting = posting;
+            this.status = status;
+            this.reason = reason;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public Posting getPosting() {
+            return posting;
+        }
+
+        public PostingStatus getStatus() {
+            return status;
+        }
+
+        // Null unless the posting was set aside as FAILED
+        public String getReason() {
+            return reason;
+        }
+    }
+
+    private static final class PendingAppend {
+        final Posting posting;
+        final CompletableFuture<Long> future;
+
+        PendingAppend(Posting posting, CompletableFuture<Long> future) {
+            this.posting = posting;
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,9 @@
+enum PostingStatus {
+    SUCCESS,
+    ACCOUNT_NOT_FOUND,
+    INSUFFICIENT_FUNDS,
+    INVALID_AMOUNT,
+    FAILED,
+    // The idempotency key was already used for a different posting
+    IDEMPOTENCY_KEY_REUSED
+}
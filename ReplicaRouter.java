@@ -0,0 +1,214 @@
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Sends read-only queries (balances, existence checks, history) to MySQL
+// replicas and keeps everything else on the primary. Writes always use the
+// primary pool directly; this class only decides where reads go.
+//
+// A replica is used only while its last measured lag (Seconds_Behind_Source
+// from SHOW REPLICA STATUS, checked every checkIntervalMillis) is at most
+// maxLagSeconds; a replica that is not replicating, can't be reached or lags
+// further falls out until the next check. Reads for an account this process
+// wrote within the last maxLagSeconds plus one check interval go to the
+// primary, so a client always reads its own writes. With no usable replica
+// every read falls back to the primary.
+class ReplicaRouter implements AutoCloseable {
+    enum Selection {
+        ROUND_ROBIN,
+        LEAST_LOADED
+    }
+
+    private static final long DEFAULT_CHECK_INTERVAL_MILLIS = 1_000;
+
+    private final ConnectionPool primary;
+    private final Replica[] replicas;
+    private final Selection selection;
+    private final long maxLagSeconds;
+    private final long stickyNanos;
+    private final Map<String, Long> recentWrites = new ConcurrentHashMap<>();
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final ScheduledExecutorService lagChecker;
+
+    private final LongAdder replicaReads = new LongAdder();
+    private final LongAdder primaryReads = new LongAdder();
+    private final LongAdder stickyReads = new LongAdder();
+
+    public ReplicaRouter(ConnectionPool primary, List<ConnectionPool> replicaPools, Selection selection,
+                         long maxLagSeconds) {
+        this(primary, replicaPools, selection, maxLagSeconds, DEFAULT_CHECK_INTERVAL_MILLIS);
+    }
+
+    // Takes ownership of the replica pools; close() closes them
+    public ReplicaRouter(ConnectionPool primary, List<ConnectionPool> replicaPools, Selection selection,
+                         long maxLagSeconds, long checkIntervalMillis) {
+        if (maxLagSeconds < 0 || checkIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Lag threshold must be non-negative and the check interval positive.");
+        }
+
+        this.primary = primary;
+        this.selection = selection;
+        this.maxLagSeconds = maxLagSeconds;
+        this.stickyNanos = TimeUnit.SECONDS.toNanos(maxLagSeconds) + TimeUnit.MILLISECONDS.toNanos(checkIntervalMillis);
+        this.replicas = new Replica[replicaPools.size()];
+        for (int i = 0; i < replicas.length; i++) {
+            replicas[i] = new Replica(replicaPools.get(i));
+        }
+
+        this.lagChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "replica-lag-checker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        lagChecker.scheduleWithFixedDelay(this::checkReplicas, 0, checkIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // A connection for read-only queries about one account; the caller closes it
+    public Connection getReadConnection(String accountNumber) throws SQLException {
+        Long writtenAt = recentWrites.get(accountNumber);
+        if (writtenAt != null && System.nanoTime() - writtenAt < stickyNanos) {
+            stickyReads.increment();
+            return primary.getConnection();
+        }
+
+        Replica replica = choose();
+        if (replica != null) {
+            try {
+                Connection connection = replica.pool.getConnection();
+                replicaReads.increment();
+                return connection;
+            } catch (SQLException e) {
+                // Unreachable: skip it until the next lag check says otherwise
+                replica.available = false;
+            }
+        }
+
+        primaryReads.increment();
+        return primary.getConnection();
+    }
+
+    // Called after a write to the account commits (or may have committed)
+    public void recordWrite(String accountNumber) {
+        recentWrites.put(accountNumber, System.nanoTime());
+    }
+
+    public ConnectionPool getPrimary() {
+        return primary;
+    }
+
+    public long getReplicaReads() {
+        return replicaReads.sum();
+    }
+
+    public long getPrimaryReads() {
+        return primaryReads.sum();
+    }
+
+    // Reads kept on the primary to see the caller's own recent write
+    public long getStickyReads() {
+        return stickyReads.sum();
+    }
+
+    @Override
+    public void close() {
+        lagChecker.shutdownNow();
+        for (Replica replica : replicas) {
+            replica.pool.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder summary = new StringBuilder("ReplicaRouter [" + selection.name().toLowerCase()
+                + ", maxLag=" + maxLagSeconds + "s, replicaReads=" + getReplicaReads()
+                + ", primaryReads=" + getPrimaryReads() + ", stickyReads=" + getStickyReads());
+        for (int i = 0; i < replicas.length; i++) {
+            Replica replica = replicas[i];
+            summary.append(", replica").append(i).append('=')
+                    .append(replica.available ? "lag " + replica.lagSeconds + "s" : "unavailable");
+        }
+        return summary.append(']').toString();
+    }
+
+    private Replica choose() {
+        Replica chosen = null;
+        if (selection == Selection.ROUND_ROBIN) {
+            int start = Math.floorMod(nextReplica.getAndIncrement(), Math.max(1, replicas.length));
+            for (int i = 0; i < replicas.length && chosen == null; i++) {
+                Replica replica = replicas[(start + i) % replicas.length];
+                if (replica.available) {
+                    chosen = replica;
+                }
+            }
+        } else {
+            // Fewest borrowed connections relative to pool size
+            double lowestLoad = Double.MAX_VALUE;
+            for (Replica replica : replicas) {
+                double load = (double) replica.pool.getActiveCount() / replica.pool.getMaxSize();
+                if (replica.available && load < lowestLoad) {
+                    lowestLoad = load;
+                    chosen = replica;
+                }
+            }
+        }
+        return chosen;
+    }
+
+    private void checkReplicas() {
+        for (Replica replica : replicas) {
+            Long lag = null;
+            try (Connection connection = replica.pool.getConnection()) {
+                lag = readLagSeconds(connection);
+            } catch (SQLException e) {
+                // Down or unreachable; lag stays unknown
+            }
+            replica.lagSeconds = lag == null ? -1 : lag;
+            replica.available = lag != null && lag <= maxLagSeconds;
+        }
+
+        // Forget writes old enough to be on every usable replica
+        long now = System.nanoTime();
+        recentWrites.values().removeIf(writtenAt -> now - writtenAt >= stickyNanos);
+    }
+
+    // Null when the server isn't replicating (no status row, or the SQL
+    // thread has stopped and the lag is NULL)
+    private static Long readLagSeconds(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            ResultSet resultSet;
+            String column = "Seconds_Behind_Source";
+            try {
+                resultSet = statement.executeQuery("SHOW REPLICA STATUS");
+            } catch (SQLException e) {
+                // MySQL before 8.0.22
+                resultSet = statement.executeQuery("SHOW SLAVE STATUS");
+                column = "Seconds_Behind_Master";
+            }
+
+            if (!resultSet.next()) {
+                return null;
+            }
+            long lag = resultSet.getLong(column);
+            return resultSet.wasNull() ? null : lag;
+        }
+    }
+
+    private static final class Replica {
+        final ConnectionPool pool;
+        volatile boolean available;
+        volatile long lagSeconds = -1;
+
+        Replica(ConnectionPool pool) {
+            this.pool = pool;
+        }
+    }
+}
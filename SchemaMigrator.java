@@ -0,0 +1,306 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+// Brings the database schema up to date at startup. Each migration runs once,
+// in version order, and is recorded in the schema_version table. A MySQL
+// named lock keeps two instances from migrating at the same time.
+class SchemaMigrator {
+    // MySQL errors meaning the object a migration creates is already there,
+    // e.g. when the database was first built from bank_sql.sql
+    private static final int ER_TABLE_EXISTS = 1050;
+    private static final int ER_DUP_KEYNAME = 1061;
+
+    private static final String LOCK_NAME = "bank_management_schema";
+    private static final int LOCK_TIMEOUT_SECONDS = 60;
+
+    private static final List<Migration> MIGRATIONS = List.of(
+            new Migration(1, "Create accounts and transactions tables",
+                    "CREATE TABLE IF NOT EXISTS accounts (" +
+                            "account_number VARCHAR(5) PRIMARY KEY," +
+                            "name VARCHAR(100) NOT NULL," +
+                            "phone VARCHAR(15) UNIQUE NOT NULL," +
+                            "email VARCHAR(100) UNIQUE NOT NULL," +
+                            "pin VARCHAR(64) NOT NULL," +  // Storing hashed pin
+                            "balance DECIMAL(15,2) DEFAULT 0.00" +
+                            ")",
+                    "CREATE TABLE IF NOT EXISTS transactions (" +
+                            "id INT AUTO_INCREMENT PRIMARY KEY," +
+                            "account_number VARCHAR(5) NOT NULL," +
+                            "transaction_type ENUM('DEPOSIT', 'WITHDRAW', 'TRANSFER') NOT NULL," +
+                            "amount DECIMAL(15,2) NOT NULL," +
+                            "recipient_account VARCHAR(5)," +
+                            "timestamp TIMESTAMP DEFAULT CURRENT_TIMESTAMP," +
+                            "FOREIGN KEY (account_number) REFERENCES accounts(account_number)" +
+                            ")"),
+            new Migration(2, "Index transactions for history and incoming-transfer lookups",
+                    "CREATE INDEX idx_transactions_account_time ON transactions (account_number, timestamp, id)",
+                    "CREATE INDEX idx_transactions_recipient_time ON transactions (recipient_account, timestamp)"),
+            new Migration(3, "Widen accounts.pin to hold salted PBKDF2 PIN hashes",
+                    "ALTER TABLE accounts MODIFY pin VARCHAR(255) NOT NULL"),
+            new Migration(4, "Track how far the posting ledger has been applied",
+                    "CREATE TABLE IF NOT EXISTS ledger_checkpoint (" +
+                            "id TINYINT PRIMARY KEY," +
+                            "applied_sequence BIGINT NOT NULL," +
+                            "updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP" +
+                            ")"),
+            new Migration(5, "Add end-of-day balance snapshots",
+                    "CREATE TABLE IF NOT EXISTS balance_snapshots (" +
+                            "account_number VARCHAR(5) NOT NULL," +
+                            "snapshot_date DATE NOT NULL," +
+                            "balance DECIMAL(15,2) NOT NULL," +
+                            "PRIMARY KEY (account_number, snapshot_date)" +
+                            ")",
+                    "CREATE TABLE IF NOT EXISTS balance_snapshot_state (" +
+                            "id TINYINT PRIMARY KEY," +
+                            "high_water_id INT NOT NULL," +
+                            "refreshed_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP" +
+                            ")"),
+            // One call does the whole transfer and answers with a single row:
+            // the PostingStatus name and both new balances in cents
+            new Migration(6, "Add the transfer_funds procedure for one-round-trip transfers",
+                    "DROP PROCEDURE IF EXISTS transfer_funds",
+                    "CREATE PROCEDURE transfer_funds(IN p_from VARCHAR(5), IN p_to VARCHAR(5), IN p_cents BIGINT) " +
+                            "BEGIN " +
+                            "DECLARE v_from_found INT DEFAULT 0; " +
+                            "DECLARE v_to_found INT DEFAULT 0; " +
+                            "DECLARE v_from_cents BIGINT DEFAULT 0; " +
+                            "DECLARE v_to_cents BIGINT DEFAULT 0; " +
+                            "DECLARE EXIT HANDLER FOR SQLEXCEPTION BEGIN ROLLBACK; RESIGNAL; END; " +
+                            "IF p_cents IS NULL OR p_cents <= 0 THEN " +
+                            "SELECT 'INVALID_AMOUNT' AS status, NULL AS sender_balance_cents, NULL AS recipient_balance_cents; " +
+                            "ELSE " +
+                            "START TRANSACTION; " +
+                            // Lock both rows in account-number order, as TransactionService does
+                            "IF p_from <= p_to THEN " +
+                            "SELECT COUNT(*), COALESCE(SUM(CAST(balance * 100 AS SIGNED)), 0) INTO v_from_found, v_from_cents " +
+                            "FROM accounts WHERE account_number = p_from FOR UPDATE; " +
+                            "SELECT COUNT(*), COALESCE(SUM(CAST(balance * 100 AS SIGNED)), 0) INTO v_to_found, v_to_cents " +
+                            "FROM accounts WHERE account_number = p_to FOR UPDATE; " +
+                            "ELSE " +
+                            "SELECT COUNT(*), COALESCE(SUM(CAST(balance * 100 AS SIGNED)), 0) INTO v_to_found, v_to_cents " +
+                            "FROM accounts WHERE account_number = p_to FOR UPDATE; " +
+                            "SELECT COUNT(*), COALESCE(SUM(CAST(balance * 100 AS SIGNED)), 0) INTO v_from_found, v_from_cents " +
+                            "FROM accounts WHERE account_number = p_from FOR UPDATE; " +
+                            "END IF; " +
+                            "IF v_from_found = 0 OR v_to_found = 0 THEN " +
+                            "ROLLBACK; " +
+                            "SELECT 'ACCOUNT_NOT_FOUND' AS status, NULL AS sender_balance_cents, NULL AS recipient_balance_cents; " +
+                            "ELSEIF v_from_cents < p_cents THEN " +
+                            "ROLLBACK; " +
+                            "SELECT 'INSUFFICIENT_FUNDS' AS status, v_from_cents AS sender_balance_cents, NULL AS recipient_balance_cents; " +
+                            "ELSE " +
+                            "UPDATE accounts SET balance = balance - p_cents / 100 WHERE account_number = p_from; " +
+                            "UPDATE accounts SET balance = balance + p_cents / 100 WHERE account_number = p_to; " +
+                            "INSERT INTO transactions (account_number, transaction_type, amount, recipient_account) " +
+                            "VALUES (p_from, 'TRANSFER', p_cents / 100, p_to); " +
+                            "COMMIT; " +
+                            "IF p_from = p_to THEN " +
+                            "SELECT 'SUCCESS' AS status, v_from_cents AS sender_balance_cents, v_from_cents AS recipient_balance_cents; " +
+                            "ELSE " +
+                            "SELECT 'SUCCESS' AS status, v_from_cents - p_cents AS sender_balance_cents, " +
+                            "v_to_cents + p_cents AS recipient_balance_cents; " +
+                            "END IF; " +
+                            "END IF; " +
+                            "END IF; " +
+                            "END"),
+            // Double-entry postings: every transactions row (the journal entry)
+            // gets a debit leg and a credit leg. Cash in and out of the bank
+            // posts against account '00000', which no customer can hold
+            // (numbers start at 10000), so each journal's legs sum to zero and
+            // an account's legs sum to its balance. The trigger covers every
+            // writer of transactions, including batches and transfer_funds.
+            new Migration(7, "Add double-entry postings and backfill them from transactions",
+                    "CREATE TABLE IF NOT EXISTS postings (" +
+                            "id BIGINT AUTO_INCREMENT PRIMARY KEY," +
+                            "journal_id INT," +  // transactions.id; NULL for opening balances
+                            "side CHAR(1) NOT NULL," +  // 'D' debit leg, 'C' credit leg
+                            "account_number VARCHAR(5) NOT NULL," +
+                            "counterparty VARCHAR(5) NOT NULL," +
+                            "transaction_type VARCHAR(16) NOT NULL," +
+                            "amount DECIMAL(15,2) NOT NULL," +  // Signed: debits negative
+                            "timestamp TIMESTAMP NOT NULL," +
+                            "UNIQUE KEY uq_postings_journal_side (journal_id, side)," +
+                            "INDEX idx_postings_account_time (account_number, timestamp, id)" +
+                            ")",
+                    "DROP TRIGGER IF EXISTS transactions_post_legs",
+                    "CREATE TRIGGER transactions_post_legs AFTER INSERT ON transactions FOR EACH ROW " +
+                            "INSERT INTO postings (journal_id, side, account_number, counterparty, transaction_type, amount, timestamp) " +
+                            "VALUES (NEW.id, 'D', " +
+                            "IF(NEW.transaction_type = 'DEPOSIT', '00000', NEW.account_number), " +
+                            "IF(NEW.transaction_type = 'DEPOSIT', NEW.account_number, COALESCE(NEW.recipient_account, '00000')), " +
+                            "NEW.transaction_type, -NEW.amount, NEW.timestamp), " +
+                            "(NEW.id, 'C', " +
+                            "IF(NEW.transaction_type = 'DEPOSIT', NEW.account_number, COALESCE(NEW.recipient_account, '00000')), " +
+                            "IF(NEW.transaction_type = 'DEPOSIT', '00000', NEW.account_number), " +
+                            "NEW.transaction_type, NEW.amount, NEW.timestamp)",
+                    // Rows written before the trigger existed
+                    "INSERT INTO postings (journal_id, side, account_number, counterparty, transaction_type, amount, timestamp) " +
+                            "SELECT t.id, legs.side, " +
+                            "IF(legs.side = 'D', " +
+                            "IF(t.transaction_type = 'DEPOSIT', '00000', t.account_number), " +
+                            "IF(t.transaction_type = 'DEPOSIT', t.account_number, COALESCE(t.recipient_account, '00000'))), " +
+                            "IF(legs.side = 'D', " +
+                            "IF(t.transaction_type = 'DEPOSIT', t.account_number, COALESCE(t.recipient_account, '00000')), " +
+                            "IF(t.transaction_type = 'DEPOSIT', '00000', t.account_number)), " +
+                            "t.transaction_type, IF(legs.side = 'D', -t.amount, t.amount), t.timestamp " +
+                            "FROM transactions t CROSS JOIN (SELECT 'D' AS side UNION ALL SELECT 'C') legs " +
+                            "WHERE NOT EXISTS (SELECT 1 FROM postings p WHERE p.journal_id = t.id) " +
+                            "ORDER BY t.id, legs.side DESC",
+                    // Balances that predate the transactions table (e.g. bank_sql.sql's
+                    // sample accounts) become an opening journal against cash
+                    "INSERT INTO postings (journal_id, side, account_number, counterparty, transaction_type, amount, timestamp) " +
+                            "SELECT NULL, legs.side, IF(legs.side = 'C', o.account_number, '00000'), " +
+                            "IF(legs.side = 'C', '00000', o.account_number), 'OPENING', " +
+                            "IF(legs.side = 'C', o.opening, -o.opening), o.opened_at " +
+                            "FROM (SELECT a.account_number, a.balance - COALESCE(SUM(p.amount), 0) AS opening, " +
+                            "COALESCE(MIN(p.timestamp) - INTERVAL 1 SECOND, CURRENT_TIMESTAMP) AS opened_at " +
+                            "FROM accounts a LEFT JOIN postings p ON p.account_number = a.account_number " +
+                            "WHERE NOT EXISTS (SELECT 1 FROM postings x " +
+                            "WHERE x.account_number = a.account_number AND x.transaction_type = 'OPENING') " +
+                            "GROUP BY a.account_number, a.balance) o " +
+                            "CROSS JOIN (SELECT 'D' AS side UNION ALL SELECT 'C') legs " +
+                            "WHERE o.opening <> 0 " +
+                            "ORDER BY o.account_number, legs.side DESC"),
+            new Migration(8, "Record idempotency keys of deposits, withdrawals and transfers",
+                    "CREATE TABLE IF NOT EXISTS idempotency_keys (" +
+                            "account_number VARCHAR(5) NOT NULL," +  // Keys are scoped to the posting's account
+                            "idempotency_key VARCHAR(64) NOT NULL," +
+                            "transaction_type VARCHAR(16) NOT NULL," +
+                            "amount DECIMAL(15,2) NOT NULL," +
+                            "recipient_account VARCHAR(5)," +
+                            "status VARCHAR(30) NOT NULL," +  // PostingStatus name
+                            "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP," +
+                            "PRIMARY KEY (account_number, idempotency_key)," +
+                            "INDEX idx_idempotency_keys_created (created_at)" +
+                            ")"),
+            new Migration(9, "Record ledger postings that were rejected or could not be applied",
+                    "CREATE TABLE IF NOT EXISTS ledger_rejections (" +
+                            "sequence BIGINT PRIMARY KEY," +  // The ledger sequence the client was given
+                            "account_number VARCHAR(5) NOT NULL," +
+                            "transaction_type VARCHAR(16) NOT NULL," +
+                            "amount DECIMAL(15,2) NOT NULL," +
+                            "recipient_account VARCHAR(5)," +
+                            "status VARCHAR(30) NOT NULL," +  // PostingStatus name
+                            "reason VARCHAR(255)," +  // Error of a posting set aside as FAILED
+                            "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP," +
+                            "INDEX idx_ledger_rejections_account (account_number, sequence)" +
+                            ")"),
+            new Migration(10, "Track transaction ids the balance snapshots passed before they committed",
+                    "CREATE TABLE IF NOT EXISTS balance_snapshot_gaps (" +
+                            "id INT PRIMARY KEY," +  // transactions.id missing when the mark passed it
+                            "recorded_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP," +
+                            "INDEX idx_balance_snapshot_gaps_recorded (recorded_at)" +
+                            ")")
+    );
+
+    private final ConnectionPool connectionPool;
+
+    public SchemaMigrator(ConnectionPool connectionPool) {
+        this.connectionPool = connectionPool;
+    }
+
+    // Applies every pending migration and returns how many ran
+    public int migrate() throws SQLException {
+        try (Connection connection = connectionPool.getConnection()) {
+            acquireLock(connection);
+            try {
+                createVersionTable(connection);
+                int current = currentVersion(connection);
+
+                int applied = 0;
+                for (Migration migration : MIGRATIONS) {
+                    if (migration.version > current) {
+                        apply(connection, migration);
+                        applied++;
+                    }
+                }
+                return applied;
+            } finally {
+                releaseLock(connection);
+            }
+        }
+    }
+
+    public static int latestVersion() {
+        return MIGRATIONS.get(MIGRATIONS.size() - 1).version;
+    }
+
+    private static void apply(Connection connection, Migration migration) throws SQLException {
+        System.out.println("Applying schema migration " + migration.version + ": " + migration.description);
+
+        // MySQL commits DDL implicitly, so each statement stands on its own
+        try (Statement statement = connection.createStatement()) {
+            for (String sql : migration.statements) {
+                try {
+                    statement.execute(sql);
+                } catch (SQLException e) {
+                    if (e.getErrorCode() != ER_TABLE_EXISTS && e.getErrorCode() != ER_DUP_KEYNAME) {
+                        throw new SQLException("Schema migration " + migration.version + " failed: " + e.getMessage(),
+                                e.getSQLState(), e.getErrorCode(), e);
+                    }
+                }
+            }
+        }
+
+        String insertQuery = "INSERT INTO schema_version (version, description) VALUES (?, ?)";
+        try (PreparedStatement stmt = connection.prepareStatement(insertQuery)) {
+            stmt.setInt(1, migration.version);
+            stmt.setString(2, migration.description);
+            stmt.executeUpdate();
+        }
+    }
+
+    private static void createVersionTable(Connection connection) throws SQLException {
+        String createVersionTable = "CREATE TABLE IF NOT EXISTS schema_version (" +
+                "version INT PRIMARY KEY," +
+                "description VARCHAR(200) NOT NULL," +
+                "applied_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP" +
+                ")";
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(createVersionTable);
+        }
+    }
+
+    private static int currentVersion(Connection connection) throws SQLException {
+        String query = "SELECT COALESCE(MAX(version), 0) FROM schema_version";
+        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+            ResultSet resultSet = stmt.executeQuery();
+            return resultSet.next() ? resultSet.getInt(1) : 0;
+        }
+    }
+
+    private static void acquireLock(Connection connection) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT GET_LOCK(?, ?)")) {
+            stmt.setString(1, LOCK_NAME);
+            stmt.setInt(2, LOCK_TIMEOUT_SECONDS);
+
+            ResultSet resultSet = stmt.executeQuery();
+            if (!resultSet.next() || resultSet.getInt(1) != 1) {
+                throw new SQLException("Timed out waiting for the schema migration lock.");
+            }
+        }
+    }
+
+    private static void releaseLock(Connection connection) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT RELEASE_LOCK(?)")) {
+            stmt.setString(1, LOCK_NAME);
+            stmt.executeQuery();
+        }
+    }
+
+    private static final class Migration {
+        final int version;
+        final String description;
+        final String[] statements;
+
+        Migration(int version, String description, String... statements) {
+            this.version = version;
+            this.description = description;
+            this.statements = statements;
+        }
+    }
+}
@@ -0,0 +1,458 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Throughput and latency of the service hot paths (deposit, withdraw,
+// transfer, verifyPin, recordTransaction, transferInOneCall through the
+// transfer_funds procedure, and groupDeposit/groupTransfer through a
+// GroupCommitter) across thread counts and account
+// contention levels. Contention is the number of accounts the operations are
+// spread over: 1 puts every thread on the same row, larger values spread the
+// row locks out. Each run warms up first, then every operation's latency is
+// recorded in a per-thread LatencyHistogram and merged for the report.
+//
+// With --load-test <requests> it instead compares ServiceExecutor modes: a
+// client keeps --in-flight requests outstanding against a fixed platform
+// pool and against virtual threads, both limited to --pool-size database
+// permits, and reports throughput, latency including queueing time, and the
+// peak number of platform threads.
+//
+// Usage:
+//   java -cp .:lib/* ServiceBenchmark [--operations deposit,withdraw,transfer,verifyPin,recordTransaction]
+//       [--threads 1,4,16] [--accounts 1,16,1024] [--duration <seconds>] [--warmup <seconds>]
+//       [--group-wait <micros>]
+//   java -cp .:lib/* ServiceBenchmark --load-test <requests> [--in-flight 1000] [--pool-size 10]
+//       [--operations ...] [--accounts ...]
+//   java -cp .:lib/* ServiceBenchmark --pin-cost 0,100000,600000
+//   java -cp .:lib/* ServiceBenchmark --engine <postings> [--shards 1,4,8] [--accounts ...]
+//
+// --engine pushes random transfers through a BalanceEngine at each shard
+// count and reports how fast they are applied in memory and how fast the
+// batched writes behind them are persisted.
+//
+// --pin-cost needs no database: it times one PIN check (a login) at each
+// PBKDF2 iteration count, with 0 meaning the plain SHA-256 hash.
+//
+// Connection settings come from -Dbank.url, -Dbank.user and -Dbank.password.
+// Benchmark accounts share the HistoryQueryBenchmark range (counting down
+// from 99999) and all use the PIN 1234.
+public class ServiceBenchmark {
+    private static final String BENCHMARK_PIN = "1234";
+    private static final Money AMOUNT = Money.ofCents(100);
+    private static final String OPENING_BALANCE = "1000000000.00";
+    private static final int GROUP_SIZE = 256;
+
+    // One invocation of the operation under test
+    private interface Operation {
+        void run(ThreadLocalRandom random, int accounts) throws SQLException;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String[] operations = {"deposit", "withdraw", "transfer", "verifyPin", "recordTransaction"};
+        int[] threadCounts = {1, 4, 16};
+        int[] accountCounts = {1, 16, 1024};
+        int durationSeconds = 10;
+        int warmupSeconds = 3;
+        int loadTestRequests = 0;
+        int inFlight = 1000;
+        int poolSize = 10;
+        int[] pinCostIterations = null;
+        int enginePostings = 0;
+        int[] shardCounts = {1, 4, 8};
+        long groupWaitMicros = 200;
+
+        for (int i = 0; i < args.length - 1; i += 2) {
+            switch (args[i]) {
+                case "--operations":
+                    operations = args[i + 1].split(",");
+                    break;
+                case "--threads":
+                    threadCounts = parseList(args[i + 1]);
+                    break;
+                case "--accounts":
+                    accountCounts = parseList(args[i + 1]);
+                    break;
+                case "--duration":
+                    durationSeconds = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--warmup":
+                    warmupSeconds = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--load-test":
+                    loadTestRequests = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--in-flight":
+                    inFlight = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--pool-size":
+                    poolSize = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--pin-cost":
+                    pinCostIterations = parseList(args[i + 1]);
+                    break;
+                case "--engine":
+                    enginePostings = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--shards":
+                    shardCounts = parseList(args[i + 1]);
+                    break;
+                case "--group-wait":
+                    groupWaitMicros = Long.parseLong(args[i + 1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        if (pinCostIterations != null) {
+            pinCost(pinCostIterations);
+            return;
+        }
+
+        int maxThreads = max(threadCounts);
+        // Transfers need two distinct accounts even at the highest contention
+        int maxAccounts = Math.max(2, max(accountCounts));
+
+        String url = System.getProperty("bank.url",
+                "jdbc:mysql://localhost:3306/bank_management?useServerPrepStmts=true&rewriteBatchedStatements=true");
+        String user = System.getProperty("bank.user", "root");
+        String password = System.getProperty("bank.password", "");
+
+        ConnectionPool pool = new ConnectionPool(url, user, password, loadTestRequests > 0 ? poolSize : maxThreads);
+        ExecutorService executor = Executors.newFixedThreadPool(maxThreads);
+        try {
+            new SchemaMigrator(pool).migrate();
+            seed(pool, maxAccounts);
+
+            AccountService accountService = new AccountService(pool);
+            TransactionService transactionService = new TransactionService(pool, accountService);
+
+            if (enginePostings > 0) {
+                engine(pool, accountService, shardCounts, accountCounts, enginePostings);
+                return;
+            }
+            try (GroupCommitter groupCommitter = new GroupCommitter(pool, transactionService, GROUP_SIZE,
+                    groupWaitMicros, 1)) {
+                if (loadTestRequests > 0) {
+                    loadTest(pool, accountService, transactionService, groupCommitter, operations, accountCounts,
+                            loadTestRequests, inFlight);
+                    return;
+                }
+
+                System.out.printf("%-18s %8s %8s %12s %10s %10s %10s %10s %8s%n", "operation", "threads", "accounts",
+                        "ops/sec", "p50 ms", "p99 ms", "p999 ms", "max ms", "errors");
+                for (String name : operations) {
+                    Operation operation = operation(name, pool, accountService, transactionService, groupCommitter);
+                    for (int accounts : accountCounts) {
+                        for (int threads : threadCounts) {
+                            run(executor, name, operation, threads, accounts, warmupSeconds, durationSeconds);
+                        }
+                    }
+                }
+
+                System.out.println();
+                System.out.println(pool);
+                System.out.println(transactionService.getTransferStats());
+                System.out.println(groupCommitter);
+            }
+        } finally {
+            executor.shutdownNow();
+            pool.close();
+        }
+    }
+
+    private static Operation operation(String name, ConnectionPool pool, AccountService accountService,
+                                       TransactionService transactionService, GroupCommitter groupCommitter) {
+        switch (name) {
+            case "deposit":
+                return (random, accounts) -> transactionService.deposit(pick(random, accounts), AMOUNT);
+            case "withdraw":
+                return (random, accounts) -> transactionService.withdraw(pick(random, accounts), AMOUNT);
+            case "transfer":
+                return (random, accounts) -> {
+                    int count = Math.max(2, accounts);
+                    int from = random.nextInt(count);
+                    int to = (from + 1 + random.nextInt(count - 1)) % count;
+                    transactionService.transfer(benchAccount(from), benchAccount(to), AMOUNT);
+                };
+            case "transferInOneCall":
+                return (random, accounts) -> {
+                    int count = Math.max(2, accounts);
+                    int from = random.nextInt(count);
+                    int to = (from + 1 + random.nextInt(count - 1)) % count;
+                    transactionService.transferInOneCall(benchAccount(from), benchAccount(to), AMOUNT);
+                };
+            case "groupDeposit":
+                return (random, accounts) -> groupCommitter.deposit(pick(random, accounts), AMOUNT).join();
+            case "groupTransfer":
+                return (random, accounts) -> {
+                    int count = Math.max(2, accounts);
+                    int from = random.nextInt(count);
+                    int to = (from + 1 + random.nextInt(count - 1)) % count;
+                    groupCommitter.transfer(benchAccount(from), benchAccount(to), AMOUNT).join();
+                };
+            case "verifyPin":
+                return (random, accounts) -> accountService.verifyPin(pick(random, accounts), BENCHMARK_PIN);
+            case "recordTransaction":
+                return (random, accounts) -> {
+                    try (Connection connection = pool.getConnection()) {
+                        transactionService.recordTransaction(connection, pick(random, accounts), "DEPOSIT", AMOUNT, null);
+                    }
+                };
+            default:
+                throw new IllegalArgumentException("Unknown operation: " + name);
+        }
+    }
+
+    private static void run(ExecutorService executor, String name, Operation operation, int threads, int accounts,
+                            int warmupSeconds, int durationSeconds) throws InterruptedException, ExecutionException {
+        List<Future<Worker>> futures = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            futures.add(executor.submit(new Worker(operation, accounts, warmupSeconds, durationSeconds)));
+        }
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        long errors = 0;
+        long elapsedNanos = 0;
+        for (Future<Worker> future : futures) {
+            Worker worker = future.get();
+            histogram.add(worker.histogram);
+            errors += worker.errors;
+            elapsedNanos = Math.max(elapsedNanos, worker.elapsedNanos);
+        }
+
+        double opsPerSecond = elapsedNanos == 0 ? 0 : histogram.getCount() / (elapsedNanos / 1_000_000_000.0);
+        System.out.printf("%-18s %8d %8d %12.1f %10.3f %10.3f %10.3f %10.3f %8d%n", name, threads, accounts,
+                opsPerSecond, histogram.getValueAtPercentileMillis(50), histogram.getValueAtPercentileMillis(99),
+                histogram.getValueAtPercentileMillis(99.9), histogram.getMax() / 1_000_000.0, errors);
+    }
+
+    private static void pinCost(int[] iterationCounts) {
+        System.out.printf("%-12s %14s %16s%n", "iterations", "ms per login", "logins/sec/core");
+        for (int iterations : iterationCounts) {
+            PinHasher hasher = new PinHasher(iterations);
+            String stored = hasher.hash(BENCHMARK_PIN);
+
+            // Warm up, then run for about two seconds
+            long warmupEnd = System.nanoTime() + 500_000_000L;
+            while (System.nanoTime() < warmupEnd) {
+                hasher.matches(BENCHMARK_PIN, stored);
+            }
+
+            long start = System.nanoTime();
+            long end = start + 2_000_000_000L;
+            long logins = 0;
+            while (System.nanoTime() < end) {
+                if (!hasher.matches(BENCHMARK_PIN, stored)) {
+                    throw new IllegalStateException("PIN check failed for " + iterations + " iterations");
+                }
+                logins++;
+            }
+            double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+            System.out.printf("%-12d %14.4f %16.1f%n", iterations, seconds * 1000 / logins, logins / seconds);
+        }
+    }
+
+    private static void loadTest(ConnectionPool pool, AccountService accountService,
+                                 TransactionService transactionService, GroupCommitter groupCommitter,
+                                 String[] operations, int[] accountCounts, int requests, int inFlight)
+            throws InterruptedException {
+        System.out.printf("%-10s %-18s %8s %9s %12s %10s %10s %10s %8s %8s%n", "mode", "operation", "accounts",
+                "in-flight", "ops/sec", "p50 ms", "p99 ms", "p999 ms", "errors", "threads");
+        for (String mode : new String[] {"platform", "virtual"}) {
+            for (String name : operations) {
+                Operation operation = operation(name, pool, accountService, transactionService, groupCommitter);
+                for (int accounts : accountCounts) {
+                    try (ServiceExecutor executor = ServiceExecutor.forPool(pool, mode.equals("virtual"))) {
+                        // Before Java 21 "virtual" falls back to a platform thread per task
+                        String label = mode.equals("virtual") && !executor.isVirtual() ? "per-task" : mode;
+                        loadTestRun(executor, label, name, operation, accounts, requests, inFlight);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void engine(ConnectionPool pool, AccountService accountService, int[] shardCounts,
+                               int[] accountCounts, int postings) throws SQLException, InterruptedException,
+            ExecutionException {
+        System.out.printf("%8s %8s %10s %14s %14s %10s %10s%n", "shards", "accounts", "postings", "applied/sec",
+                "persisted/sec", "batches", "rejected");
+        for (int shards : shardCounts) {
+            for (int accounts : accountCounts) {
+                // Transfers need two distinct accounts
+                int spread = Math.max(2, accounts);
+                try (BalanceEngine engine = new BalanceEngine(pool, accountService, shards)) {
+                    engine.start();
+
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    List<Future<PostingStatus>> results = new ArrayList<>(postings);
+                    long start = System.nanoTime();
+                    for (int i = 0; i < postings; i++) {
+                        results.add(engine.transfer(pick(random, spread), pick(random, spread), AMOUNT));
+                    }
+                    while (engine.getAppliedCount() + engine.getRejectedCount() < postings) {
+                        Thread.onSpinWait();
+                    }
+                    long appliedNanos = System.nanoTime() - start;
+                    for (Future<PostingStatus> result : results) {
+                        result.get();
+                    }
+                    long persistedNanos = System.nanoTime() - start;
+
+                    System.out.printf("%8d %8d %10d %14.0f %14.0f %10d %10d%n", shards, spread, postings,
+                            postings / (appliedNanos / 1_000_000_000.0), postings / (persistedNanos / 1_000_000_000.0),
+                            engine.getPersistBatches(), engine.getRejectedCount());
+                }
+            }
+        }
+    }
+
+    // Open-ish load: the client keeps `inFlight` requests outstanding and
+    // latency is measured from submission, so it includes time spent queued
+    private static void loadTestRun(ServiceExecutor executor, String mode, String name, Operation operation,
+                                    int accounts, int requests, int inFlight) throws InterruptedException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+
+        Semaphore outstanding = new Semaphore(inFlight);
+        CountDownLatch done = new CountDownLatch(requests);
+        LatencyHistogram histogram = new LatencyHistogram();
+        AtomicLong errors = new AtomicLong();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            outstanding.acquire();
+            long submitted = System.nanoTime();
+            executor.submit(() -> {
+                operation.run(ThreadLocalRandom.current(), accounts);
+                return null;
+            }).whenComplete((result, failure) -> {
+                long elapsed = System.nanoTime() - submitted;
+                synchronized (histogram) {
+                    histogram.record(elapsed);
+                }
+                if (failure != null) {
+                    errors.incrementAndGet();
+                }
+                outstanding.release();
+                done.countDown();
+            });
+        }
+        done.await();
+        long elapsedNanos = System.nanoTime() - start;
+
+        System.out.printf("%-10s %-18s %8d %9d %12.1f %10.3f %10.3f %10.3f %8d %8d%n", mode, name, accounts,
+                inFlight, requests / (elapsedNanos / 1_000_000_000.0), histogram.getValueAtPercentileMillis(50),
+                histogram.getValueAtPercentileMillis(99), histogram.getValueAtPercentileMillis(99.9), errors.get(),
+                threads.getPeakThreadCount());
+    }
+
+    private static final class Worker implements Callable<Worker> {
+        private final Operation operation;
+        private final int accounts;
+        private final long warmupNanos;
+        private final long durationNanos;
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private long errors;
+        private long elapsedNanos;
+
+        Worker(Operation operation, int accounts, int warmupSeconds, int durationSeconds) {
+            this.operation = operation;
+            this.accounts = accounts;
+            this.warmupNanos = warmupSeconds * 1_000_000_000L;
+            this.durationNanos = durationSeconds * 1_000_000_000L;
+        }
+
+        @Override
+        public Worker call() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+
+            long warmupEnd = System.nanoTime() + warmupNanos;
+            while (System.nanoTime() < warmupEnd) {
+                invoke(random);
+            }
+            histogram.reset();
+            errors = 0;
+
+            long start = System.nanoTime();
+            long end = start + durationNanos;
+            long now = start;
+            while (now < end) {
+                invoke(random);
+                long finished = System.nanoTime();
+                histogram.record(finished - now);
+                now = finished;
+            }
+
+            elapsedNanos = now - start;
+            return this;
+        }
+
+        private void invoke(ThreadLocalRandom random) {
+            try {
+                operation.run(random, accounts);
+            } catch (SQLException e) {
+                errors++;
+            }
+        }
+    }
+
+    private static void seed(ConnectionPool pool, int accounts) throws SQLException {
+        String accountInsert = "INSERT INTO accounts (account_number, name, phone, email, pin, balance) " +
+                "VALUES (?, ?, ?, ?, SHA2(?, 256), " + OPENING_BALANCE + ") " +
+                "ON DUPLICATE KEY UPDATE pin = VALUES(pin), balance = VALUES(balance)";
+        try (Connection connection = pool.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(accountInsert)) {
+            for (int i = 0; i < accounts; i++) {
+                String accountNumber = benchAccount(i);
+                stmt.setString(1, accountNumber);
+                stmt.setString(2, "Benchmark " + accountNumber);
+                stmt.setString(3, "55" + accountNumber);
+                stmt.setString(4, "bench" + accountNumber + "@example.com");
+                stmt.setString(5, BENCHMARK_PIN);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    private static String pick(ThreadLocalRandom random, int accounts) {
+        return benchAccount(random.nextInt(accounts));
+    }
+
+    // Same range as HistoryQueryBenchmark, at the top of the number space
+    private static String benchAccount(int index) {
+        return String.valueOf(99999 - index);
+    }
+
+    private static int[] parseList(String value) {
+        String[] parts = value.split(",");
+        int[] numbers = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            numbers[i] = Integer.parseInt(parts[i].trim());
+        }
+        return numbers;
+    }
+
+    private static int max(int[] values) {
+        int max = 1;
+        for (int value : values) {
+            max = Math.max(max, value);
+        }
+        return max;
+    }
+}
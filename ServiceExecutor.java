@@ -0,0 +1,155 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs blocking service calls off the caller's thread. In virtual-thread mode
+// every task gets its own virtual thread, so thousands of requests can wait
+// on JDBC without tying up platform threads; a semaphore sized to the
+// connection pool keeps at most that many tasks talking to the database at
+// once, and the rest park cheaply on the semaphore instead of in the pool.
+//
+// Virtual threads need Java 21. On older runtimes virtualThreads() falls
+// back to a fixed pool of `permits` platform threads, as platformThreads()
+// does: a platform thread per task would mean one thread per queued request
+// with no upper bound. isVirtual() reports which one is in use.
+class ServiceExecutor implements Executor, AutoCloseable {
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final boolean virtual;
+    private final String description;
+
+    private ServiceExecutor(ExecutorService executor, int permits, boolean virtual, String description) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException("Permits must be greater than zero.");
+        }
+
+        this.executor = executor;
+        this.permits = new Semaphore(permits);
+        this.virtual = virtual;
+        this.description = description;
+    }
+
+    // One virtual thread per task, at most `permits` of them in the database
+    public static ServiceExecutor virtualThreads(int permits) {
+        ExecutorService virtualExecutor = newVirtualThreadPerTaskExecutor();
+        if (virtualExecutor != null) {
+            return new ServiceExecutor(virtualExecutor, permits, true, "virtual threads, " + permits + " permits");
+        }
+        return new ServiceExecutor(Executors.newFixedThreadPool(permits, threadFactory("bank-worker")), permits,
+                false, permits + " platform threads (virtual threads need Java 21)");
+    }
+
+    // The classic fixed pool: at most `threads` tasks run, the rest queue
+    public static ServiceExecutor platformThreads(int threads) {
+        return new ServiceExecutor(Executors.newFixedThreadPool(threads, threadFactory("bank-worker")), threads,
+                false, threads + " platform threads");
+    }
+
+    // Sized from the connection pool, in the requested mode
+    public static ServiceExecutor forPool(ConnectionPool connectionPool, boolean virtualThreads) {
+        return virtualThreads
+                ? virtualThreads(connectionPool.getMaxSize())
+                : platformThreads(connectionPool.getMaxSize());
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        executor.execute(() -> {
+            try {
+                runWithPermit(task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    // Runs a service call and completes the future with its result or exception
+    public <T> CompletableFuture<T> submit(BankMetrics.Timed<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    runWithPermit(() -> {
+                        try {
+                            future.complete(call.call());
+                        } catch (Throwable e) {
+                            future.completeExceptionally(e);
+                        }
+                    });
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The executor has been shut down
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private void runWithPermit(Runnable task) throws InterruptedException {
+        permits.acquire();
+        try {
+            task.run();
+        } finally {
+            permits.release();
+        }
+    }
+
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    // Tasks waiting for a database permit
+    public int getQueueLength() {
+        return permits.getQueueLength();
+    }
+
+    public int getAvailablePermits() {
+        return permits.availablePermits();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ServiceExecutor [" + description + ", waiting=" + getQueueLength() + "]";
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static ThreadFactory threadFactory(String prefix) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,89 @@
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Short-lived tokens handed out after a successful PIN check, so a
+// multi-step flow verifies the PIN once instead of on every operation. A
+// token is bound to one account and expires a fixed time after it was
+// issued. Tokens only live in this process's memory.
+class SessionTokens {
+    private static final int TOKEN_BYTES = 32;
+    private static final int PURGE_EVERY = 1024;
+
+    private final long ttlMillis;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final AtomicInteger opened = new AtomicInteger();
+
+    public SessionTokens(long ttlMillis) {
+        if (ttlMillis <= 0) {
+            throw new IllegalArgumentException("Session TTL must be greater than zero.");
+        }
+        this.ttlMillis = ttlMillis;
+    }
+
+    public String open(String accountNumber) {
+        // Drop expired sessions now and then so abandoned tokens don't pile up
+        if (opened.incrementAndGet() % PURGE_EVERY == 0) {
+            purgeExpired();
+        }
+
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        sessions.put(token, new Session(accountNumber, System.currentTimeMillis() + ttlMillis));
+        return token;
+    }
+
+    public boolean isValid(String token, String accountNumber) {
+        if (token == null) {
+            return false;
+        }
+
+        Session session = sessions.get(token);
+        if (session == null) {
+            return false;
+        }
+        if (session.expiresAt <= System.currentTimeMillis()) {
+            sessions.remove(token, session);
+            return false;
+        }
+        return session.accountNumber.equals(accountNumber);
+    }
+
+    public void close(String token) {
+        if (token != null) {
+            sessions.remove(token);
+        }
+    }
+
+    public int purgeExpired() {
+        long now = System.currentTimeMillis();
+        int purged = 0;
+        Iterator<Session> iterator = sessions.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().expiresAt <= now) {
+                iterator.remove();
+                purged++;
+            }
+        }
+        return purged;
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    private static final class Session {
+        final String accountNumber;
+        final long expiresAt;
+
+        Session(String accountNumber, long expiresAt) {
+            this.accountNumber = accountNumber;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
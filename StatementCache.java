@@ -0,0 +1,151 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// Bounded LRU cache of PreparedStatements for one physical connection, keyed
+// by SQL text. Callers keep using try-with-resources: closing the statement
+// they were handed only resets it for the next caller.
+class StatementCache {
+    private final Connection physical;
+    private final int maxSize;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+    private final BankMetrics metrics;
+    private final LinkedHashMap<String, CachedStatement> statements = new LinkedHashMap<>(16, 0.75f, true);
+
+    StatementCache(Connection physical, int maxSize, LongAdder hits, LongAdder misses, LongAdder evictions,
+                   BankMetrics metrics) {
+        this.physical = physical;
+        this.maxSize = maxSize;
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.metrics = metrics;
+    }
+
+    PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+        String key = autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS ? "K:" + sql : "N:" + sql;
+
+        CachedStatement cached = statements.get(key);
+        if (cached != null && !cached.inUse) {
+            hits.increment();
+        } else if (cached != null) {
+            // Same SQL already open on this connection (nested use) - hand out a private copy
+            misses.increment();
+            return physical.prepareStatement(sql, autoGeneratedKeys);
+        } else {
+            misses.increment();
+            cached = new CachedStatement(physical.prepareStatement(sql, autoGeneratedKeys));
+            statements.put(key, cached);
+            evictIfNeeded();
+        }
+
+        cached.inUse = true;
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                new Class<?>[] { PreparedStatement.class }, new Handle(cached, metrics));
+    }
+
+    private void evictIfNeeded() {
+        Iterator<Map.Entry<String, CachedStatement>> iterator = statements.entrySet().iterator();
+        while (statements.size() > maxSize && iterator.hasNext()) {
+            CachedStatement eldest = iterator.next().getValue();
+            if (eldest.inUse) {
+                continue;
+            }
+            iterator.remove();
+            evictions.increment();
+            closeQuietly(eldest.statement);
+        }
+    }
+
+    int size() {
+        return statements.size();
+    }
+
+    private static void closeQuietly(Statement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            // The statement is being dropped from the cache either way
+        }
+    }
+
+    private static final class CachedStatement {
+        final PreparedStatement statement;
+        boolean inUse;
+
+        CachedStatement(PreparedStatement statement) {
+            this.statement = statement;
+        }
+    }
+
+    // Logical statement handed to one caller; close() resets and releases it
+    private static final class Handle implements InvocationHandler {
+        private final BankMetrics metrics;
+        private CachedStatement cached;
+
+        Handle(CachedStatement cached, BankMetrics metrics) {
+            this.cached = cached;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+
+            if (name.equals("close")) {
+                if (cached != null) {
+                    CachedStatement releasing = cached;
+                    cached = null;
+                    try {
+                        reset(releasing.statement);
+                    } finally {
+                        releasing.inUse = false;
+                    }
+                }
+                return null;
+            }
+            if (name.equals("isClosed")) {
+                return cached == null;
+            }
+            if (name.equals("equals")) {
+                return proxy == args[0];
+            }
+            if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            }
+            if (cached == null) {
+                throw new SQLException("Statement is closed.");
+            }
+            if (name.startsWith("execute")) {
+                metrics.recordRoundTrip();
+            }
+
+            try {
+                return method.invoke(cached.statement, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        private static void reset(PreparedStatement statement) throws SQLException {
+            ResultSet open = statement.getResultSet();
+            if (open != null) {
+                open.close();
+            }
+            statement.clearParameters();
+            statement.clearBatch();
+        }
+    }
+}
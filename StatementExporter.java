@@ -0,0 +1,238 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Exports monthly account statements for reconciliation. Each statement line
+// is one transaction seen from one account: its own deposits, withdrawals and
+// outgoing transfers as debits or credits, plus transfers it received.
+//
+// Rows are streamed from a forward-only cursor (fetch size FETCH_SIZE; with
+// useCursorFetch=true on the JDBC URL MySQL sends them in batches instead of
+// all at once) and written straight to a CSV file and a ColumnarStatementFile
+// through FileChannels, so memory use does not grow with the statement.
+// exportAll() splits the account number space into ranges and exports them
+// in parallel, one file pair per range.
+class StatementExporter {
+    private static final int FETCH_SIZE = 1_000;
+    private static final int CSV_BUFFER_BYTES = 64 * 1024;
+    private static final String CSV_HEADER = "account_number,id,timestamp,type,amount,counterparty\n";
+    private static final DateTimeFormatter CSV_TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    // Outgoing rows, then incoming transfers, as the statement account sees them
+    private static final String STATEMENT_QUERY =
+            "SELECT account_number, id, timestamp, transaction_type, CAST(amount * 100 AS SIGNED), " +
+                    "recipient_account, 0 FROM transactions " +
+                    "WHERE account_number BETWEEN ? AND ? AND timestamp >= ? AND timestamp < ? " +
+                    "UNION ALL " +
+                    "SELECT recipient_account, id, timestamp, transaction_type, CAST(amount * 100 AS SIGNED), " +
+                    "account_number, 1 FROM transactions " +
+                    "WHERE recipient_account BETWEEN ? AND ? AND timestamp >= ? AND timestamp < ? " +
+                    "ORDER BY 1, 3, 2";
+
+    private final ConnectionPool connectionPool;
+
+    public StatementExporter(ConnectionPool connectionPool) {
+        this.connectionPool = connectionPool;
+    }
+
+    // Exports statements for accounts fromAccount..toAccount (inclusive)
+    public ExportResult export(YearMonth month, String fromAccount, String toAccount, Path directory)
+            throws SQLException, IOException {
+        Files.createDirectories(directory);
+        String baseName = "statements-" + month + "-" + fromAccount + "-" + toAccount;
+        Path csvPath = directory.resolve(baseName + ".csv");
+        Path columnarPath = directory.resolve(baseName + ColumnarStatementFile.EXTENSION);
+
+        long start = System.nanoTime();
+        long rows = 0;
+        try (Connection connection = connectionPool.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(STATEMENT_QUERY,
+                     ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+             CsvWriter csv = new CsvWriter(csvPath);
+             ColumnarStatementFile.Writer columnar = new ColumnarStatementFile.Writer(columnarPath)) {
+            Timestamp monthStart = Timestamp.valueOf(month.atDay(1).atStartOfDay());
+            Timestamp monthEnd = Timestamp.valueOf(month.plusMonths(1).atDay(1).atStartOfDay());
+            for (int offset = 0; offset <= 4; offset += 4) {
+                stmt.setString(offset + 1, fromAccount);
+                stmt.setString(offset + 2, toAccount);
+                stmt.setTimestamp(offset + 3, monthStart);
+                stmt.setTimestamp(offset + 4, monthEnd);
+            }
+            stmt.setFetchSize(FETCH_SIZE);
+
+            ResultSet resultSet = stmt.executeQuery();
+            while (resultSet.next()) {
+                String account = resultSet.getString(1);
+                long id = resultSet.getLong(2);
+                Timestamp timestamp = resultSet.getTimestamp(3);
+                String type = resultSet.getString(4);
+                long cents = resultSet.getLong(5);
+                String counterparty = resultSet.getString(6);
+                boolean incoming = resultSet.getInt(7) == 1;
+
+                // Only deposits and money received add to the balance
+                long signedCents = incoming || type.equals("DEPOSIT") ? cents : -cents;
+                csv.writeRow(account, id, timestamp, type, signedCents, counterparty);
+                columnar.write(account, id, timestamp.getTime(), type, signedCents, counterparty);
+                rows++;
+            }
+        }
+
+        return new ExportResult(fromAccount, toAccount, rows, csvPath, columnarPath, System.nanoTime() - start);
+    }
+
+    // Splits 00000-99999 into `ranges` equal parts and exports them on up to
+    // `parallelism` connections at once
+    public List<ExportResult> exportAll(YearMonth month, Path directory, int ranges, int parallelism)
+            throws SQLException, IOException {
+        if (ranges <= 0 || parallelism <= 0) {
+            throw new IllegalArgumentException("Ranges and parallelism must be greater than zero.");
+        }
+
+        int span = (100_000 + ranges - 1) / ranges;
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(ranges, parallelism));
+        try {
+            List<Future<ExportResult>> futures = new ArrayList<>();
+            for (int low = 0; low < 100_000; low += span) {
+                String fromAccount = String.format("%05d", low);
+                String toAccount = String.format("%05d", Math.min(99_999, low + span - 1));
+                futures.add(executor.submit(() -> export(month, fromAccount, toAccount, directory)));
+            }
+
+            List<ExportResult> results = new ArrayList<>();
+            for (Future<ExportResult> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while exporting statements.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IllegalStateException("Statement export failed", cause);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // Writes ASCII CSV through a reused direct buffer; every value in a
+    // statement row is a number, a timestamp or an enum name, so no quoting
+    private static final class CsvWriter implements AutoCloseable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(CSV_BUFFER_BYTES);
+
+        CsvWriter(Path path) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            append(CSV_HEADER);
+        }
+
+        void writeRow(String account, long id, Timestamp timestamp, String type, long signedCents,
+                      String counterparty) throws IOException {
+            append(account);
+            append(",");
+            append(Long.toString(id));
+            append(",");
+            append(CSV_TIMESTAMP.format(timestamp.toLocalDateTime()));
+            append(",");
+            append(type);
+            append(",");
+            append(Money.ofCents(signedCents).toString());
+            append(",");
+            if (counterparty != null) {
+                append(counterparty);
+            }
+            append("\n");
+        }
+
+        private void append(String value) throws IOException {
+            int length = value.length();
+            if (buffer.remaining() < length) {
+                flush();
+            }
+            for (int i = 0; i < length; i++) {
+                buffer.put((byte) value.charAt(i));
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    static final class ExportResult {
+        private final String fromAccount;
+        private final String toAccount;
+        private final long rows;
+        private final Path csvPath;
+        private final Path columnarPath;
+        private final long elapsedNanos;
+
+        ExportResult(String fromAccount, String toAccount, long rows, Path csvPath, Path columnarPath,
+                     long elapsedNanos) {
+            this.fromAccount = fromAccount;
+            this.toAccount = toAccount;
+            this.rows = rows;
+            this.csvPath = csvPath;
+            this.columnarPath = columnarPath;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public Path getCsvPath() {
+            return csvPath;
+        }
+
+        public Path getColumnarPath() {
+            return columnarPath;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s-%s: %d rows in %.1f ms -> %s, %s", fromAccount, toAccount, rows,
+                    elapsedNanos / 1_000_000.0, csvPath.getFileName(), columnarPath.getFileName());
+        }
+    }
+}
@@ -2,11 +2,11 @@ class Transaction {
     private int id;
     private String accountNumber;
     private String type;
-    private double amount;
+    private Money amount;
     private String recipientAccount;
     private String timestamp;
 
-    public Transaction(int id, String accountNumber, String type, double amount, String recipientAccount, String timestamp) {
+    public Transaction(int id, String accountNumber, String type, Money amount, String recipientAccount, String timestamp) {
         this.id = id;
         this.accountNumber = accountNumber;
         this.type = type;
@@ -27,7 +27,7 @@ class Transaction {
         return type;
     }
 
-    public double getAmount() {
+    public Money getAmount() {
         return amount;
     }
 
@@ -0,0 +1,118 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// Walks an account's transactions newest first, one page at a time, using
+// keyset pagination on (timestamp, id). Only one page is held in memory and
+// a connection is borrowed just long enough to read each page, from a
+// replica when the AccountService routes reads to replicas.
+//
+// Rows come from the account's own legs in postings, so incoming transfers
+// are a range read on the same index as everything else. Each leg is shown
+// as the transaction it belongs to: a received transfer reads as sent by
+// the counterparty to this account. OPENING legs, which carry balances
+// that predate the postings table and have no transaction behind them, are
+// left out.
+class TransactionHistory implements Iterator<Transaction> {
+    private static final String COLUMNS = "SELECT id, journal_id, side, counterparty, transaction_type, " +
+            "CAST(ABS(amount) * 100 AS SIGNED) AS amount_cents, timestamp FROM postings ";
+    private static final String FIRST_PAGE = COLUMNS +
+            "WHERE account_number = ? AND transaction_type <> 'OPENING' ORDER BY timestamp DESC, id DESC LIMIT ?";
+    private static final String NEXT_PAGE = COLUMNS +
+            "WHERE account_number = ? AND transaction_type <> 'OPENING' " +
+            "AND (timestamp < ? OR (timestamp = ? AND id < ?)) " +
+            "ORDER BY timestamp DESC, id DESC LIMIT ?";
+
+    private final ConnectionPool connectionPool;
+    private final AccountService accountService;
+    private final String accountNumber;
+    private final int pageSize;
+    private final Deque<Transaction> page = new ArrayDeque<>();
+
+    private Timestamp lastTimestamp;
+    private long lastId;
+    private boolean firstPage = true;
+    private boolean exhausted;
+
+    TransactionHistory(ConnectionPool connectionPool, AccountService accountService, String accountNumber, int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be greater than zero.");
+        }
+
+        this.connectionPool = connectionPool;
+        this.accountService = accountService;
+        this.accountNumber = accountNumber;
+        this.pageSize = pageSize;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (page.isEmpty() && !exhausted) {
+            try {
+                fetchPage();
+            } catch (SQLException e) {
+                throw new IllegalStateException("Failed to load transaction history: " + e.getMessage(), e);
+            }
+        }
+        return !page.isEmpty();
+    }
+
+    @Override
+    public Transaction next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return page.removeFirst();
+    }
+
+    void fetchPage() throws SQLException {
+        connectionPool.getMetrics().time("TransactionHistory.fetchPage", () -> {
+            readPage();
+            return null;
+        });
+    }
+
+    private void readPage() throws SQLException {
+        try (Connection connection = accountService.readConnection(accountNumber);
+             PreparedStatement stmt = connection.prepareStatement(firstPage ? FIRST_PAGE : NEXT_PAGE)) {
+            stmt.setFetchSize(pageSize);
+
+            int index = 1;
+            stmt.setString(index++, accountNumber);
+            if (!firstPage) {
+                stmt.setTimestamp(index++, lastTimestamp);
+                stmt.setTimestamp(index++, lastTimestamp);
+                stmt.setLong(index++, lastId);
+            }
+            stmt.setInt(index, pageSize);
+
+            int rows = 0;
+            ResultSet resultSet = stmt.executeQuery();
+            while (resultSet.next()) {
+                rows++;
+                lastId = resultSet.getLong("id");
+                lastTimestamp = resultSet.getTimestamp("timestamp");
+
+                String type = resultSet.getString("transaction_type");
+                String sender = accountNumber;
+                String recipient = null;
+                if (type.equals("TRANSFER")) {
+                    boolean received = resultSet.getString("side").equals("C");
+                    sender = received ? resultSet.getString("counterparty") : accountNumber;
+                    recipient = received ? accountNumber : resultSet.getString("counterparty");
+                }
+                page.addLast(new Transaction(resultSet.getInt("journal_id"), sender, type,
+                        Money.ofCents(resultSet.getLong("amount_cents")), recipient, String.valueOf(lastTimestamp)));
+            }
+
+            firstPage = false;
+            exhausted = rows < pageSize;
+        }
+    }
+}
@@ -1,38 +1,71 @@
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeSet;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 class TransactionService {
-    private Connection connection;
-    private AccountService accountService;
+    // MySQL error codes that mean "roll back and try again"
+    static final int ER_LOCK_WAIT_TIMEOUT = 1205;
+    static final int ER_LOCK_DEADLOCK = 1213;
 
-    public TransactionService(Connection connection) {
-        this.connection = connection;
-        this.accountService = new AccountService(connection);
+    private static final int MAX_TRANSFER_RETRIES = 5;
+    private static final long BASE_BACKOFF_MILLIS = 5;
+    private static final long MAX_BACKOFF_MILLIS = 200;
+    private static final int DEFAULT_BATCH_CHUNK_SIZE = 500;
+    private static final int DEFAULT_HISTORY_PAGE_SIZE = 100;
+    private static final int IDEMPOTENCY_CACHE_SIZE = 10_000;
+    private static final long IDEMPOTENCY_CACHE_TTL_MILLIS = 10 * 60 * 1000;
+    private static final int MAX_IDEMPOTENCY_KEY_LENGTH = 64;
+    private static final int PURGE_BATCH_SIZE = 10_000;
+
+    private final ConnectionPool connectionPool;
+    private final AccountService accountService;
+    private final TransferStats transferStats = new TransferStats();
+    private final IdempotencyCache idempotencyCache = new IdempotencyCache(IDEMPOTENCY_CACHE_SIZE,
+            IDEMPOTENCY_CACHE_TTL_MILLIS);
+    private final BankMetrics metrics;
+
+    // Takes the application's AccountService, so there is one cache and one
+    // account number allocator per process
+    public TransactionService(ConnectionPool connectionPool, AccountService accountService) {
+        this.connectionPool = connectionPool;
+        this.accountService = accountService;
+        this.metrics = connectionPool.getMetrics();
     }
 
-    public boolean deposit(String accountNumber, double amount) throws SQLException {
-        // Validate account
-        if (!accountService.accountExists(accountNumber)) {
+    public boolean deposit(String accountNumber, Money amount) throws SQLException {
+        if (!amount.isPositive()) {
             return false;
         }
+        return metrics.time("TransactionService.deposit", () -> {
+            try (Connection connection = connectionPool.getConnection()) {
+                return deposit(connection, accountNumber, amount);
+            }
+        });
+    }
 
+    private boolean deposit(Connection connection, String accountNumber, Money amount) throws SQLException {
         // Begin transaction
         connection.setAutoCommit(false);
+        boolean committed = false;
 
         try {
-            // Get current balance
-            double currentBalance = accountService.getBalance(accountNumber);
-
-            // Update balance
-            double newBalance = currentBalance + amount;
-            boolean balanceUpdated = accountService.updateBalance(accountNumber, newBalance);
-
-            if (!balanceUpdated) {
-                connection.rollback();
-                return false;
-            }
+            // Credit the account in a single statement
+            accountService.credit(connection, accountNumber, amount);
 
             // Record transaction
-            boolean transactionRecorded = recordTransaction(accountNumber, "DEPOSIT", amount, null);
+            boolean transactionRecorded = recordTransaction(connection, accountNumber, "DEPOSIT", amount, null);
 
             if (!transactionRecorded) {
                 connection.rollback();
@@ -41,43 +74,45 @@ class TransactionService {
 
             // Commit transaction
             connection.commit();
+            committed = true;
+            accountService.evictFromCache(accountNumber);
             return true;
+        } catch (AccountNotFoundException e) {
+            connection.rollback();
+            return false;
         } catch (SQLException e) {
             connection.rollback();
             throw e;
         } finally {
+            if (!committed) {
+                accountService.evictFromCache(accountNumber);
+            }
             connection.setAutoCommit(true);
         }
     }
 
-    public boolean withdraw(String accountNumber, double amount) throws SQLException {
-        // Validate account
-        if (!accountService.accountExists(accountNumber)) {
-            return false;
-        }
-
-        // Check if there's enough balance
-        double currentBalance = accountService.getBalance(accountNumber);
-        if (currentBalance < amount) {
-            System.out.println("Error: Insufficient balance. Your current balance is $" + currentBalance);
+    public boolean withdraw(String accountNumber, Money amount) throws SQLException {
+        if (!amount.isPositive()) {
             return false;
         }
+        return metrics.time("TransactionService.withdraw", () -> {
+            try (Connection connection = connectionPool.getConnection()) {
+                return withdraw(connection, accountNumber, amount);
+            }
+        });
+    }
 
+    private boolean withdraw(Connection connection, String accountNumber, Money amount) throws SQLException {
         // Begin transaction
         connection.setAutoCommit(false);
+        boolean committed = false;
 
         try {
-            // Update balance
-            double newBalance = currentBalance - amount;
-            boolean balanceUpdated = accountService.updateBalance(accountNumber, newBalance);
-
-            if (!balanceUpdated) {
-                connection.rollback();
-                return false;
-            }
+            // Debit the account only if the balance covers the amount
+            accountService.debit(connection, accountNumber, amount);
 
             // Record transaction
-            boolean transactionRecorded = recordTransaction(accountNumber, "WITHDRAW", amount, null);
+            boolean transactionRecorded = recordTransaction(connection, accountNumber, "WITHDRAW", amount, null);
 
             if (!transactionRecorded) {
                 connection.rollback();
@@ -86,53 +121,124 @@ class TransactionService {
 
             // Commit transaction
             connection.commit();
+            committed = true;
+            accountService.evictFromCache(accountNumber);
             return true;
+        } catch (InsufficientFundsException e) {
+            connection.rollback();
+            return false;
+        } catch (AccountNotFoundException e) {
+            connection.rollback();
+            return false;
         } catch (SQLException e) {
             connection.rollback();
             throw e;
         } finally {
+            if (!committed) {
+                accountService.evictFromCache(accountNumber);
+            }
             connection.setAutoCommit(true);
         }
     }
 
-    public boolean transfer(String fromAccount, String toAccount, double amount) throws SQLException {
-        // Validate accounts
-        if (!accountService.accountExists(fromAccount) || !accountService.accountExists(toAccount)) {
+    public boolean transfer(String fromAccount, String toAccount, Money amount) throws SQLException {
+        if (!amount.isPositive()) {
             return false;
         }
+        return metrics.time("TransactionService.transfer", () -> {
+            try (Connection connection = connectionPool.getConnection()) {
+                return transfer(connection, fromAccount, toAccount, amount);
+            }
+        });
+    }
 
-        // Check if there's enough balance
-        double currentBalance = accountService.getBalance(fromAccount);
-        if (currentBalance < amount) {
-            System.out.println("Error: Insufficient balance. Your current balance is $" + currentBalance);
-            return false;
+    private boolean transfer(Connection connection, String fromAccount, String toAccount, Money amount) throws SQLException {
+        long start = System.nanoTime();
+
+        for (int attempt = 0; ; attempt++) {
+            try {
+                boolean transferred = attemptTransfer(connection, fromAccount, toAccount, amount);
+                transferStats.recordCompleted(transferred, System.nanoTime() - start);
+                return transferred;
+            } catch (SQLException e) {
+                if (!isRetryable(e) || attempt >= MAX_TRANSFER_RETRIES) {
+                    transferStats.recordFailed();
+                    throw e;
+                }
+                transferStats.recordRetry(e);
+                backoff(attempt);
+            }
+        }
+    }
+
+    // The same transfer in a single server round trip: the transfer_funds
+    // procedure (schema migration 6) locks both rows, checks them, moves the
+    // money, records the transaction and commits, then answers with one row
+    public PostingStatus transferInOneCall(String fromAccount, String toAccount, Money amount) throws SQLException {
+        return metrics.time("TransactionService.transferInOneCall", () -> {
+            if (!amount.isPositive()) {
+                return PostingStatus.INVALID_AMOUNT;
+            }
+
+            long start = System.nanoTime();
+            try (Connection connection = connectionPool.getConnection()) {
+                for (int attempt = 0; ; attempt++) {
+                    try {
+                        PostingStatus status = callTransferFunds(connection, fromAccount, toAccount, amount);
+                        transferStats.recordCompleted(status == PostingStatus.SUCCESS, System.nanoTime() - start);
+                        return status;
+                    } catch (SQLException e) {
+                        if (!isRetryable(e) || attempt >= MAX_TRANSFER_RETRIES) {
+                            transferStats.recordFailed();
+                            throw e;
+                        }
+                        transferStats.recordRetry(e);
+                        backoff(attempt);
+                    }
+                }
+            }
+        });
+    }
+
+    private PostingStatus callTransferFunds(Connection connection, String fromAccount, String toAccount, Money amount) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement("CALL transfer_funds(?, ?, ?)")) {
+            stmt.setString(1, fromAccount);
+            stmt.setString(2, toAccount);
+            stmt.setLong(3, amount.getCents());
+
+            ResultSet resultSet = stmt.executeQuery();
+            if (!resultSet.next()) {
+                throw new SQLException("transfer_funds returned no result.");
+            }
+            return PostingStatus.valueOf(resultSet.getString("status"));
+        } finally {
+            // Committed, rolled back or unknown: either way the entries may be stale
+            accountService.evictFromCache(fromAccount);
+            accountService.evictFromCache(toAccount);
         }
+    }
 
+    private boolean attemptTransfer(Connection connection, String fromAccount, String toAccount, Money amount) throws SQLException {
         // Begin transaction
         connection.setAutoCommit(false);
+        boolean committed = false;
 
         try {
-            // Update sender's balance
-            double newSenderBalance = currentBalance - amount;
-            boolean senderBalanceUpdated = accountService.updateBalance(fromAccount, newSenderBalance);
-
-            if (!senderBalanceUpdated) {
+            // Lock both rows in account-number order so opposite-direction
+            // transfers between the same pair queue up instead of deadlocking
+            if (!lockAccounts(connection, fromAccount, toAccount)) {
                 connection.rollback();
                 return false;
             }
 
-            // Update recipient's balance
-            double recipientBalance = accountService.getBalance(toAccount);
-            double newRecipientBalance = recipientBalance + amount;
-            boolean recipientBalanceUpdated = accountService.updateBalance(toAccount, newRecipientBalance);
+            // Debit the sender only if the balance covers the amount
+            accountService.debit(connection, fromAccount, amount);
 
-            if (!recipientBalanceUpdated) {
-                connection.rollback();
-                return false;
-            }
+            // Credit the recipient
+            accountService.credit(connection, toAccount, amount);
 
             // Record transaction
-            boolean transactionRecorded = recordTransaction(fromAccount, "TRANSFER", amount, toAccount);
+            boolean transactionRecorded = recordTransaction(connection, fromAccount, "TRANSFER", amount, toAccount);
 
             if (!transactionRecorded) {
                 connection.rollback();
@@ -141,21 +247,504 @@ class TransactionService {
 
             // Commit transaction
             connection.commit();
+            committed = true;
+            accountService.evictFromCache(fromAccount);
+            accountService.evictFromCache(toAccount);
             return true;
+        } catch (InsufficientFundsException e) {
+            connection.rollback();
+            return false;
+        } catch (AccountNotFoundException e) {
+            connection.rollback();
+            return false;
         } catch (SQLException e) {
             connection.rollback();
             throw e;
         } finally {
+            if (!committed) {
+                accountService.evictFromCache(fromAccount);
+                accountService.evictFromCache(toAccount);
+            }
             connection.setAutoCommit(true);
         }
     }
 
-    private boolean recordTransaction(String accountNumber, String type, double amount, String recipientAccount) throws SQLException {
-        String query = "INSERT INTO transactions (account_number, transaction_type, amount, recipient_account) VALUES (?, ?, ?, ?)";
+    // Takes row locks on both accounts in ascending key order with a single
+    // statement. Returns false if either account does not exist.
+    private boolean lockAccounts(Connection connection, String firstAccount, String secondAccount) throws SQLException {
+        String query = "SELECT account_number FROM accounts WHERE account_number IN (?, ?) " +
+                "ORDER BY account_number FOR UPDATE";
+        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+            stmt.setString(1, firstAccount);
+            stmt.setString(2, secondAccount);
+
+            int expected = firstAccount.equals(secondAccount) ? 1 : 2;
+            int found = 0;
+            ResultSet resultSet = stmt.executeQuery();
+            while (resultSet.next()) {
+                found++;
+            }
+            return found == expected;
+        }
+    }
+
+    private static boolean isRetryable(SQLException e) {
+        return e instanceof SQLTransactionRollbackException
+                || "40001".equals(e.getSQLState())
+                || e.getErrorCode() == ER_LOCK_DEADLOCK
+                || e.getErrorCode() == ER_LOCK_WAIT_TIMEOUT;
+    }
+
+    // Exponential backoff with full jitter, capped so a hot pair can't stall a caller for long
+    private static void backoff(int attempt) throws SQLException {
+        long ceiling = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << attempt);
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while retrying transfer.", e);
+        }
+    }
+
+    public BatchReport postBatch(List<Posting> postings) throws SQLException {
+        return postBatch(postings, DEFAULT_BATCH_CHUNK_SIZE);
+    }
+
+    // Posts a large list of operations in chunks, committing once per chunk.
+    // A chunk that fails for a non-retryable reason is rolled back and all of
+    // its items are reported as FAILED; later chunks still run.
+    public BatchReport postBatch(List<Posting> postings, int chunkSize) throws SQLException {
+        return metrics.time("TransactionService.postBatch", () -> {
+            if (chunkSize <= 0) {
+                throw new IllegalArgumentException("Chunk size must be greater than zero.");
+            }
+
+            PostingStatus[] statuses = new PostingStatus[postings.size()];
+
+            try (Connection connection = connectionPool.getConnection()) {
+                // Begin transaction
+                connection.setAutoCommit(false);
+
+                try {
+                    for (int offset = 0; offset < postings.size(); offset += chunkSize) {
+                        List<Posting> chunk = postings.subList(offset, Math.min(offset + chunkSize, postings.size()));
+                        postChunk(connection, chunk, statuses, offset);
+                    }
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+            }
+
+            return new BatchReport(statuses);
+        });
+    }
+
+    // Applies and commits one chunk on a connection with auto-commit off;
+    // returns false if it was rolled back and marked FAILED
+    boolean postChunk(Connection connection, List<Posting> chunk, PostingStatus[] statuses, int offset) throws SQLException {
+        try {
+            return postChunkWithRetry(connection, chunk, statuses, offset);
+        } finally {
+            evictAccounts(chunk);
+        }
+    }
+
+    // Batch updates don't report resulting balances, so just drop what we touched
+    void evictAccounts(List<Posting> chunk) {
+        for (String account : accountsOf(chunk)) {
+            accountService.evictFromCache(account);
+        }
+    }
+
+    private boolean postChunkWithRetry(Connection connection, List<Posting> chunk, PostingStatus[] statuses, int offset) throws SQLException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                applyChunk(connection, chunk, statuses, offset);
+
+                // Commit transaction
+                connection.commit();
+                return true;
+            } catch (SQLException e) {
+                connection.rollback();
+                if (isRetryable(e) && attempt < MAX_TRANSFER_RETRIES) {
+                    backoff(attempt);
+                    continue;
+                }
+                Arrays.fill(statuses, offset, offset + chunk.size(), PostingStatus.FAILED);
+                return false;
+            }
+        }
+    }
+
+    public PostingStatus deposit(String accountNumber, Money amount, String idempotencyKey) throws SQLException {
+        return post(Posting.deposit(accountNumber, amount), idempotencyKey);
+    }
+
+    public PostingStatus withdraw(String accountNumber, Money amount, String idempotencyKey) throws SQLException {
+        return post(Posting.withdraw(accountNumber, amount), idempotencyKey);
+    }
+
+    public PostingStatus transfer(String fromAccount, String toAccount, Money amount, String idempotencyKey) throws SQLException {
+        return post(Posting.transfer(fromAccount, toAccount, amount), idempotencyKey);
+    }
+
+    // Posts at most once per idempotency key. Keys are scoped to the
+    // posting's account and stored, with the posting and its outcome, in the
+    // posting's own transaction. A retry of a request that committed gets the
+    // original status back and balances are untouched; the same key sent
+    // with a different posting gets IDEMPOTENCY_KEY_REUSED and nothing runs;
+    // a request that failed with an exception stored nothing and can be
+    // retried. Recent keys are answered from memory without a round trip.
+    public PostingStatus post(Posting posting, String idempotencyKey) throws SQLException {
+        if (idempotencyKey == null || idempotencyKey.isEmpty() || idempotencyKey.length() > MAX_IDEMPOTENCY_KEY_LENGTH) {
+            throw new IllegalArgumentException("Idempotency key must be 1-" + MAX_IDEMPOTENCY_KEY_LENGTH + " characters.");
+        }
+
+        // A malformed number can't be an account, and wouldn't fit the key table
+        if (!posting.hasValidAccounts()) {
+            return PostingStatus.ACCOUNT_NOT_FOUND;
+        }
+        if (!posting.getAmount().isPositive()) {
+            return PostingStatus.INVALID_AMOUNT;
+        }
+
+        return metrics.time("TransactionService.post", () -> {
+            IdempotencyCache.Entry cached = idempotencyCache.get(posting.getAccountNumber(), idempotencyKey);
+            if (cached != null) {
+                return replay(cached.posting, cached.status, posting);
+            }
+
+            try (Connection connection = connectionPool.getConnection()) {
+                // Begin transaction
+                connection.setAutoCommit(false);
+                try {
+                    return postOnce(connection, posting, idempotencyKey);
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+            }
+        });
+    }
+
+    // The stored outcome if the key was used for this very posting
+    private static PostingStatus replay(Posting original, PostingStatus status, Posting posting) {
+        return original.isSameRequest(posting) ? status : PostingStatus.IDEMPOTENCY_KEY_REUSED;
+    }
+
+    private PostingStatus postOnce(Connection connection, Posting posting, String idempotencyKey) throws SQLException {
+        List<Posting> chunk = List.of(posting);
+        PostingStatus[] statuses = new PostingStatus[1];
+        try {
+            for (int attempt = 0; ; attempt++) {
+                try {
+                    applyChunk(connection, chunk, statuses, 0);
+                    recordIdempotencyKey(connection, idempotencyKey, posting, statuses[0]);
+
+                    // Commit transaction
+                    connection.commit();
+                    idempotencyCache.put(idempotencyKey, posting, statuses[0]);
+                    return statuses[0];
+                } catch (SQLIntegrityConstraintViolationException e) {
+                    // The key is taken: this is a retry, so undo the posting
+                    connection.rollback();
+                    IdempotencyCache.Entry stored = findIdempotencyKey(connection, posting.getAccountNumber(), idempotencyKey);
+                    if (stored == null) {
+                        throw e;
+                    }
+                    idempotencyCache.put(idempotencyKey, stored.posting, stored.status);
+                    return replay(stored.posting, stored.status, posting);
+                } catch (SQLException e) {
+                    connection.rollback();
+                    if (isRetryable(e) && attempt < MAX_TRANSFER_RETRIES) {
+                        backoff(attempt);
+                        continue;
+                    }
+                    throw e;
+                }
+            }
+        } finally {
+            evictAccounts(chunk);
+        }
+    }
+
+    private static void recordIdempotencyKey(Connection connection, String idempotencyKey, Posting posting,
+                                             PostingStatus status) throws SQLException {
+        String query = "INSERT INTO idempotency_keys (account_number, idempotency_key, transaction_type, amount, " +
+                "recipient_account, status) VALUES (?, ?, ?, ? / 100, ?, ?)";
+        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+            stmt.setString(1, posting.getAccountNumber());
+            stmt.setString(2, idempotencyKey);
+            stmt.setString(3, posting.getType());
+            stmt.setLong(4, posting.getAmount().getCents());
+            stmt.setString(5, posting.getRecipientAccount());
+            stmt.setString(6, status.name());
+            stmt.executeUpdate();
+        }
+    }
+
+    private static IdempotencyCache.Entry findIdempotencyKey(Connection connection, String accountNumber,
+                                                             String idempotencyKey) throws SQLException {
+        String query = "SELECT transaction_type, CAST(amount * 100 AS SIGNED) AS amount_cents, recipient_account, status " +
+                "FROM idempotency_keys WHERE account_number = ? AND idempotency_key = ?";
+        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+            stmt.setString(1, accountNumber);
+            stmt.setString(2, idempotencyKey);
+
+            ResultSet resultSet = stmt.executeQuery();
+            if (!resultSet.next()) {
+                return null;
+            }
+            Money amount = Money.ofCents(resultSet.getLong("amount_cents"));
+            String type = resultSet.getString("transaction_type");
+            Posting original = type.equals("DEPOSIT") ? Posting.deposit(accountNumber, amount)
+                    : type.equals("WITHDRAW") ? Posting.withdraw(accountNumber, amount)
+                    : Posting.transfer(accountNumber, resultSet.getString("recipient_account"), amount);
+            return new IdempotencyCache.Entry(original, PostingStatus.valueOf(resultSet.getString("status")),
+                    System.currentTimeMillis());
+        }
+    }
+
+    // Forgets keys older than the retention period, a batch at a time so the
+    // delete never holds many row locks; returns how many were removed. The
+    // retention can't be shorter than the cache TTL, or another process
+    // could keep replaying a key this one has deleted.
+    public int purgeIdempotencyKeys(Duration retention) throws SQLException {
+        if (retention.toMillis() < idempotencyCache.getTtlMillis()) {
+            throw new IllegalArgumentException("Retention must be at least the idempotency cache TTL of "
+                    + Duration.ofMillis(idempotencyCache.getTtlMillis()) + ".");
+        }
+
+        return metrics.time("TransactionService.purgeIdempotencyKeys", () -> {
+            String query = "DELETE FROM idempotency_keys WHERE created_at < ? LIMIT " + PURGE_BATCH_SIZE;
+            try (Connection connection = connectionPool.getConnection();
+                 PreparedStatement stmt = connection.prepareStatement(query)) {
+                stmt.setTimestamp(1, Timestamp.from(Instant.now().minus(retention)));
+
+                int purged = 0;
+                int deleted;
+                do {
+                    deleted = stmt.executeUpdate();
+                    purged += deleted;
+                } while (deleted == PURGE_BATCH_SIZE);
+
+                // Nothing here may outlive the rows it stands for
+                idempotencyCache.clear();
+                return purged;
+            }
+        });
+    }
+
+    // Applies one chunk inside the caller's transaction without committing.
+    // Every posting sees the balances left by the postings submitted before
+    // it and none of those after. Postings are batched in runs: within a run
+    // deposits go first, then debits in submission order, then transfer
+    // recipients, and a run ends before a posting whose result that
+    // reordering could change (a deposit to an account the run has debited,
+    // or a debit from an account the run credits as a transfer recipient).
+    void applyChunk(Connection connection, List<Posting> chunk, PostingStatus[] statuses, int offset) throws SQLException {
+        // Lock every account the chunk touches, in key order, and learn which exist
+        Set<String> existing = lockAccounts(connection, accountsOf(chunk));
+
+        List<Integer> run = new ArrayList<>();
+        Set<String> debited = new HashSet<>();
+        Set<String> recipients = new HashSet<>();
+        for (int i = 0; i < chunk.size(); i++) {
+            Posting posting = chunk.get(i);
+            if (!posting.getAmount().isPositive()) {
+                statuses[offset + i] = PostingStatus.INVALID_AMOUNT;
+                continue;
+            }
+            if (!existing.contains(posting.getAccountNumber())
+                    || (posting.isTransfer() && !existing.contains(posting.getRecipientAccount()))) {
+                statuses[offset + i] = PostingStatus.ACCOUNT_NOT_FOUND;
+                continue;
+            }
+
+            boolean reorders = posting.isCredit() ? debited.contains(posting.getAccountNumber())
+                    : recipients.contains(posting.getAccountNumber());
+            if (reorders) {
+                applyRun(connection, chunk, run, statuses, offset);
+                run.clear();
+                debited.clear();
+                recipients.clear();
+            }
+
+            run.add(i);
+            if (!posting.isCredit()) {
+                debited.add(posting.getAccountNumber());
+            }
+            if (posting.isTransfer()) {
+                recipients.add(posting.getRecipientAccount());
+            }
+        }
+        applyRun(connection, chunk, run, statuses, offset);
+
+        // Record transactions for everything that went through
+        String insertQuery = "INSERT INTO transactions (account_number, transaction_type, amount, recipient_account) VALUES (?, ?, ? / 100, ?)";
+        try (PreparedStatement stmt = connection.prepareStatement(insertQuery)) {
+            boolean any = false;
+            for (int i = 0; i < chunk.size(); i++) {
+                if (statuses[offset + i] != PostingStatus.SUCCESS) {
+                    continue;
+                }
+                Posting posting = chunk.get(i);
+                stmt.setString(1, posting.getAccountNumber());
+                stmt.setString(2, posting.getType());
+                stmt.setLong(3, posting.getAmount().getCents());
+                stmt.setString(4, posting.getRecipientAccount());
+                stmt.addBatch();
+                any = true;
+            }
+            if (any) {
+                stmt.executeBatch();
+            }
+        }
+    }
+
+    // One run of valid postings (see applyChunk); sets each one's status
+    private static void applyRun(Connection connection, List<Posting> chunk, List<Integer> run,
+                                 PostingStatus[] statuses, int offset) throws SQLException {
+        List<Integer> credits = new ArrayList<>();
+        List<Integer> debits = new ArrayList<>();
+        for (int i : run) {
+            if (chunk.get(i).isCredit()) {
+                credits.add(i);
+            } else {
+                debits.add(i);
+            }
+        }
+
+        // Deposits
+        creditBatch(connection, chunk, credits, false);
+        for (int i : credits) {
+            statuses[offset + i] = PostingStatus.SUCCESS;
+        }
+
+        // Withdrawals and transfer senders, each only if the balance covers it
+        List<Integer> transferCredits = new ArrayList<>();
+        String debitQuery = "UPDATE accounts SET balance = balance - ? / 100 WHERE account_number = ? AND balance * 100 >= ?";
+        try (PreparedStatement stmt = connection.prepareStatement(debitQuery)) {
+            for (int i : debits) {
+                Posting posting = chunk.get(i);
+                stmt.setLong(1, posting.getAmount().getCents());
+                stmt.setString(2, posting.getAccountNumber());
+                stmt.setLong(3, posting.getAmount().getCents());
+                stmt.addBatch();
+            }
+
+            int[] counts = debits.isEmpty() ? new int[0] : stmt.executeBatch();
+            for (int k = 0; k < counts.length; k++) {
+                int i = debits.get(k);
+                if (counts[k] == Statement.SUCCESS_NO_INFO) {
+                    // Can't tell which debits the balance covered
+                    throw new SQLException("Driver did not report update counts for the debit batch.");
+                } else if (counts[k] == 0) {
+                    statuses[offset + i] = PostingStatus.INSUFFICIENT_FUNDS;
+                } else if (chunk.get(i).isTransfer()) {
+                    transferCredits.add(i);
+                } else {
+                    statuses[offset + i] = PostingStatus.SUCCESS;
+                }
+            }
+        }
+
+        // Transfer recipients for every sender that was debited
+        creditBatch(connection, chunk, transferCredits, true);
+        for (int i : transferCredits) {
+            statuses[offset + i] = PostingStatus.SUCCESS;
+        }
+    }
+
+    private static void creditBatch(Connection connection, List<Posting> chunk, List<Integer> indexes,
+                                    boolean toRecipient) throws SQLException {
+        if (indexes.isEmpty()) {
+            return;
+        }
+
+        String query = "UPDATE accounts SET balance = balance + ? / 100 WHERE account_number = ?";
+        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+            for (int i : indexes) {
+                Posting posting = chunk.get(i);
+                stmt.setLong(1, posting.getAmount().getCents());
+                stmt.setString(2, toRecipient ? posting.getRecipientAccount() : posting.getAccountNumber());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    private static Set<String> accountsOf(List<Posting> chunk) {
+        Set<String> accounts = new TreeSet<>();
+        for (Posting posting : chunk) {
+            accounts.add(posting.getAccountNumber());
+            if (posting.getRecipientAccount() != null) {
+                accounts.add(posting.getRecipientAccount());
+            }
+        }
+        return accounts;
+    }
+
+    private static Set<String> lockAccounts(Connection connection, Set<String> accounts) throws SQLException {
+        Set<String> existing = new HashSet<>();
+        if (accounts.isEmpty()) {
+            return existing;
+        }
+
+        StringBuilder query = new StringBuilder("SELECT account_number FROM accounts WHERE account_number IN (");
+        for (int i = 0; i < accounts.size(); i++) {
+            query.append(i == 0 ? "?" : ", ?");
+        }
+        query.append(") ORDER BY account_number FOR UPDATE");
+
+        try (PreparedStatement stmt = connection.prepareStatement(query.toString())) {
+            int index = 1;
+            for (String account : accounts) {
+                stmt.setString(index++, account);
+            }
+
+            ResultSet resultSet = stmt.executeQuery();
+            while (resultSet.next()) {
+                existing.add(resultSet.getString(1));
+            }
+        }
+
+        return existing;
+    }
+
+    public Stream<Transaction> streamHistory(String accountNumber) throws SQLException {
+        return streamHistory(accountNumber, DEFAULT_HISTORY_PAGE_SIZE);
+    }
+
+    // Streams the account's full history, newest first. Rows are read pageSize
+    // at a time, so the stream can be consumed lazily or cut short with limit().
+    public Stream<Transaction> streamHistory(String accountNumber, int pageSize) throws SQLException {
+        Iterator<Transaction> history = historyIterator(accountNumber, pageSize);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(history,
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    public Iterator<Transaction> historyIterator(String accountNumber, int pageSize) throws SQLException {
+        TransactionHistory history = new TransactionHistory(connectionPool, accountService, accountNumber, pageSize);
+
+        // Load the first page now so database errors surface as SQLException here
+        history.fetchPage();
+        return history;
+    }
+
+    public TransferStats getTransferStats() {
+        return transferStats;
+    }
+
+    public IdempotencyCache getIdempotencyCache() {
+        return idempotencyCache;
+    }
+
+    boolean recordTransaction(Connection connection, String accountNumber, String type, Money amount, String recipientAccount) throws SQLException {
+        String query = "INSERT INTO transactions (account_number, transaction_type, amount, recipient_account) VALUES (?, ?, ? / 100, ?)";
         try (PreparedStatement stmt = connection.prepareStatement(query)) {
             stmt.setString(1, accountNumber);
             stmt.setString(2, type);
-            stmt.setDouble(3, amount);
+            stmt.setLong(3, amount.getCents());
             stmt.setString(4, recipientAccount);
 
             int rowsAffected = stmt.executeUpdate();
@@ -0,0 +1,79 @@
+import java.sql.SQLException;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counters for the transfer path, safe to update from many threads
+class TransferStats {
+    private final long startedAt = System.nanoTime();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder deadlocks = new LongAdder();
+    private final LongAdder lockTimeouts = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+
+    void recordCompleted(boolean transferred, long elapsedNanos) {
+        if (transferred) {
+            completed.increment();
+        } else {
+            rejected.increment();
+        }
+        totalNanos.add(elapsedNanos);
+    }
+
+    void recordFailed() {
+        failed.increment();
+    }
+
+    void recordRetry(SQLException e) {
+        retries.increment();
+        if (e.getErrorCode() == TransactionService.ER_LOCK_WAIT_TIMEOUT) {
+            lockTimeouts.increment();
+        } else {
+            deadlocks.increment();
+        }
+    }
+
+    public long getCompleted() {
+        return completed.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    public long getDeadlocks() {
+        return deadlocks.sum();
+    }
+
+    public long getLockTimeouts() {
+        return lockTimeouts.sum();
+    }
+
+    // Committed transfers per second since the service was created
+    public double getThroughput() {
+        double seconds = (System.nanoTime() - startedAt) / 1_000_000_000.0;
+        return seconds > 0 ? getCompleted() / seconds : 0;
+    }
+
+    public double getAverageLatencyMillis() {
+        long count = getCompleted() + getRejected();
+        return count == 0 ? 0 : totalNanos.sum() / 1_000_000.0 / count;
+    }
+
+    @Override
+    public String toString() {
+        return "TransferStats [completed=" + getCompleted() + ", rejected=" + getRejected() + ", failed=" + getFailed()
+                + ", retries=" + getRetries() + ", deadlocks=" + getDeadlocks() + ", lockTimeouts=" + getLockTimeouts()
+                + ", throughput=" + String.format("%.1f", getThroughput()) + "/s"
+                + ", avgLatencyMs=" + String.format("%.3f", getAverageLatencyMillis()) + "]";
+    }
+}
@@ -10,7 +10,7 @@ CREATE TABLE IF NOT EXISTS accounts (
     name VARCHAR(100) NOT NULL,
     phone VARCHAR(15) UNIQUE NOT NULL,
     email VARCHAR(100) UNIQUE NOT NULL,
-    pin VARCHAR(64) NOT NULL,  -- Storing hashed pin (SHA-256)
+    pin VARCHAR(255) NOT NULL,  -- Storing hashed pin (SHA-256 or salted PBKDF2)
     balance DECIMAL(15,2) DEFAULT 0.00
 );
 
@@ -25,6 +25,10 @@ CREATE TABLE IF NOT EXISTS transactions (
     FOREIGN KEY (account_number) REFERENCES accounts(account_number)
 );
 
+-- Indexes for transaction history (newest first) and incoming-transfer lookups
+CREATE INDEX idx_transactions_account_time ON transactions (account_number, timestamp, id);
+CREATE INDEX idx_transactions_recipient_time ON transactions (recipient_account, timestamp);
+
 -- Optional: Insert some sample data for testing
 -- Sample accounts (PIN '1234' hashed with SHA-256)
 INSERT INTO accounts (account_number, name, phone, email, pin, balance) VALUES